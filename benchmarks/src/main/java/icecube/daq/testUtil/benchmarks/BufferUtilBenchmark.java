@@ -0,0 +1,95 @@
+/**
+ * BufferUtilBenchmark
+ *
+ * (c) 2026 IceCube Collaboration
+ */
+package icecube.daq.testUtil.benchmarks;
+
+import icecube.daq.testUtil.BufferUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Buffer creation, comparison and verification in BufferUtil.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BufferUtilBenchmark {
+
+    @Param({"256", "4096", "31900"})
+    public int bodyBlen;
+
+    @Param({"heap", "direct"})
+    public String bufferKind;
+
+    @Param({"3", "4"})
+    public int pattern;
+
+    private BufferUtil util;
+    private ByteBuffer buffer;
+    private ByteBuffer copy;
+    private ByteBuffer checksummed;
+
+    @Setup
+    public void setUp() throws Exception {
+        util = new BufferUtil();
+        int blen = util.requiredRawBufferBlen(bodyBlen);
+        buffer = allocate(blen);
+        copy = allocate(blen);
+        checksummed = allocate(blen);
+
+        util.setRandomSeed(1L);
+        util.createAndFillBuffer(buffer, bodyBlen, 1, pattern);
+        util.setRandomSeed(1L);
+        util.createAndFillBuffer(copy, bodyBlen, 1, pattern);
+
+        util.setChecksumEnabled(true);
+        util.createAndFillBuffer(checksummed, bodyBlen, 1, pattern);
+        util.setChecksumEnabled(false);
+    }
+
+    private ByteBuffer allocate(int blen) {
+        if (bufferKind.equals("direct")) {
+            return ByteBuffer.allocateDirect(blen);
+        }
+        return ByteBuffer.allocate(blen);
+    }
+
+    @Benchmark
+    public ByteBuffer createAndFill() throws Exception {
+        util.createAndFillBuffer(buffer, bodyBlen, 1, pattern);
+        return buffer;
+    }
+
+    @Benchmark
+    public int compare() {
+        return util.compareBuffers(buffer, copy);
+    }
+
+    @Benchmark
+    public boolean verifyContents() {
+        return util.verifyBufferContents(copy);
+    }
+
+    @Benchmark
+    public boolean verifyChecksum() {
+        return util.verifyChecksum(checksummed);
+    }
+}
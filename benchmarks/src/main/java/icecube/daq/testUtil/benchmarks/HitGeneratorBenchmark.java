@@ -0,0 +1,95 @@
+/**
+ * HitGeneratorBenchmark
+ *
+ * (c) 2026 IceCube Collaboration
+ */
+package icecube.daq.testUtil.benchmarks;
+
+import icecube.daq.testUtil.HitGenerator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hit rendering in HitGenerator, one hit at a time and in batches, for
+ * hits with no waveforms, the default waveforms and the largest ones.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HitGeneratorBenchmark {
+
+    private static final int BATCH = 256;
+
+    @Param({"empty", "default", "full"})
+    public String waveform;
+
+    @Param({"heap", "direct"})
+    public String bufferKind;
+
+    private HitGenerator generator;
+    private ByteBuffer buffer;
+    private long[] timeStamps = new long[BATCH];
+    private long[] domIds = new long[BATCH];
+    private long time;
+
+    @Setup
+    public void setUp() {
+        if (waveform.equals("empty")) {
+            generator = new HitGenerator(0, 0, 0);
+        } else if (waveform.equals("full")) {
+            generator = new HitGenerator(255, 0xff, 0xff);
+        } else {
+            generator = new HitGenerator();
+        }
+
+        int blen = generator.getBatchLength(BATCH);
+        if (bufferKind.equals("direct")) {
+            buffer = ByteBuffer.allocateDirect(blen);
+        } else {
+            buffer = ByteBuffer.allocate(blen);
+        }
+        for (int i = 0; i < BATCH; i++) {
+            domIds[i] = 0x1000L + i;
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer generateHit() {
+        buffer.clear();
+        generator.generateHit(time++, 0x1234L, 12000, 2, buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer generateHitAllocating() {
+        return generator.generateHit(time++, 0x1234L, 12000, 2);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public ByteBuffer generateHits() {
+        for (int i = 0; i < BATCH; i++) {
+            timeStamps[i] = time++;
+        }
+        buffer.clear();
+        generator.generateHits(timeStamps, domIds, 0, BATCH, 12000, 2, buffer);
+        return buffer;
+    }
+}
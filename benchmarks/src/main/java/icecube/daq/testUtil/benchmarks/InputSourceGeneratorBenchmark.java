@@ -0,0 +1,115 @@
+/**
+ * InputSourceGeneratorBenchmark
+ *
+ * (c) 2026 IceCube Collaboration
+ */
+package icecube.daq.testUtil.benchmarks;
+
+import icecube.daq.testUtil.FrameDecoder;
+import icecube.daq.testUtil.InputSourceGenerator;
+import icecube.daq.testUtil.PipeFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Payload generation and delivery through InputSourceGenerator.  A
+ * background thread drains and discards the generator's output, so this
+ * measures payload rendering plus the pipe write path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InputSourceGeneratorBenchmark {
+
+    @Param({"HitPayload", "HitDataPayload"})
+    public String payloadType;
+
+    @Param({"1", "64"})
+    public int batchSize;
+
+    @Param({PipeFactory.TRANSPORT_PIPE, PipeFactory.TRANSPORT_RING})
+    public String transport;
+
+    private String oldTransport;
+    private boolean oldSelectorConsumers;
+
+    private InputSourceGenerator generator;
+    private Drainer drainer;
+
+    @Setup
+    public void setUp() throws Exception {
+        oldTransport = PipeFactory.getTransport();
+        oldSelectorConsumers = PipeFactory.hasSelectorConsumers();
+        // the drainer reads the pipe with blocking reads, so ring pipes are allowed
+        PipeFactory.setSelectorConsumers(false);
+        PipeFactory.setTransport(transport);
+        generator = new InputSourceGenerator(Long.valueOf(1L));
+        generator.setPayloadType(payloadType);
+        generator.setBatchSize(batchSize);
+
+        Pipe.SourceChannel source = (Pipe.SourceChannel) generator.getSourceChannel();
+        source.configureBlocking(true);
+        drainer = new Drainer(source);
+        drainer.start();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        generator.sendStopSignal();
+        drainer.join();
+        PipeFactory.setTransport(oldTransport);
+        PipeFactory.setSelectorConsumers(oldSelectorConsumers);
+    }
+
+    @Benchmark
+    public void sendPayload() {
+        generator.generatePayload();
+    }
+
+    // reads and discards everything until the stop signal
+    static class Drainer extends Thread {
+        private Pipe.SourceChannel source;
+
+        Drainer(Pipe.SourceChannel source) {
+            this.source = source;
+            setName("InputSourceGeneratorBenchmark-drainer");
+            setDaemon(true);
+        }
+
+        public void run() {
+            FrameDecoder decoder = new FrameDecoder();
+            try {
+                while (true) {
+                    ByteBuffer frame = decoder.nextFrame();
+                    if (frame == null) {
+                        if (decoder.fill(source) < 0) {
+                            return;
+                        }
+                    } else if (FrameDecoder.isStopFrame(frame)) {
+                        return;
+                    }
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
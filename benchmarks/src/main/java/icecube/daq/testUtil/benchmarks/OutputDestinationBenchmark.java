@@ -0,0 +1,113 @@
+/**
+ * OutputDestinationBenchmark
+ *
+ * (c) 2026 IceCube Collaboration
+ */
+package icecube.daq.testUtil.benchmarks;
+
+import icecube.daq.testUtil.DisposerOutputDestination;
+import icecube.daq.testUtil.FileWriterChannel;
+import icecube.daq.testUtil.OutputDestination;
+import icecube.daq.testUtil.PipeFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drain rate of the output destinations.  Each operation writes one
+ * payload into the destination's pipe; once the pipe is full the writer
+ * can only go as fast as the destination empties it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OutputDestinationBenchmark {
+
+    @Param({"disposer", "file"})
+    public String destination;
+
+    @Param({"64", "1024", "32000"})
+    public int payloadBlen;
+
+    @Param({"heap", "direct"})
+    public String bufferKind;
+
+    @Param({PipeFactory.TRANSPORT_PIPE, PipeFactory.TRANSPORT_RING})
+    public String transport;
+
+    private String oldTransport;
+    private boolean oldSelectorConsumers;
+
+    private OutputDestination output;
+    private Pipe.SinkChannel sink;
+    private ByteBuffer payload;
+    private File outputFile;
+
+    @Setup
+    public void setUp() throws Exception {
+        oldTransport = PipeFactory.getTransport();
+        oldSelectorConsumers = PipeFactory.hasSelectorConsumers();
+        // the destinations read their pipes with blocking reads, so ring pipes are allowed
+        PipeFactory.setSelectorConsumers(false);
+        PipeFactory.setTransport(transport);
+        if (destination.equals("file")) {
+            outputFile = File.createTempFile("bench", ".dat");
+            output = new FileWriterChannel(outputFile.getPath(), 1);
+        } else {
+            output = new DisposerOutputDestination(1);
+        }
+        sink = (Pipe.SinkChannel) output.getSinkChannel();
+        sink.configureBlocking(true);
+        output.startProcessing();
+
+        if (bufferKind.equals("direct")) {
+            payload = ByteBuffer.allocateDirect(payloadBlen);
+        } else {
+            payload = ByteBuffer.allocate(payloadBlen);
+        }
+        payload.putInt(0, payloadBlen);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        ByteBuffer stop = ByteBuffer.allocate(4);
+        stop.putInt(0, 4);
+        while (stop.hasRemaining()) {
+            sink.write(stop);
+        }
+        while (output.isRunning()) {
+            Thread.sleep(1);
+        }
+        if (outputFile != null) {
+            outputFile.delete();
+        }
+        PipeFactory.setTransport(oldTransport);
+        PipeFactory.setSelectorConsumers(oldSelectorConsumers);
+    }
+
+    @Benchmark
+    public void drain() throws Exception {
+        payload.clear();
+        while (payload.hasRemaining()) {
+            sink.write(payload);
+        }
+    }
+}
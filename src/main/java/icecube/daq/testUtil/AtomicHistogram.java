@@ -0,0 +1,76 @@
+/**
+ * AtomicHistogram
+ *
+ * (c) 2026 IceCube Collaboration
+ */
+package icecube.daq.testUtil;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe version of LatencyHistogram's buckets.  Recording is a
+ * single atomic increment, with no locks, so any number of threads can
+ * record while another takes a <tt>snapshot()</tt>.  A snapshot's min,
+ * max and mean are computed from the buckets, so like its percentiles
+ * they are accurate to about 3%.
+ */
+public class AtomicHistogram {
+
+    private AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.BUCKET_COUNT);
+
+    /**
+     * add a value to the histogram
+     * @param value value to record; negative values are recorded as 0
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(LatencyHistogram.bucketIndex(value));
+    }
+
+    /**
+     * record a latency measured at a sampled send time, along with the
+     * latencies the sends which should have happened while it was held up
+     * would have seen, so a stall is not under-counted just because the
+     * sender was stalled too (coordinated omission)
+     * @param value measured latency
+     * @param expectedInterval expected time between sends, or 0 to record
+     *                         only the measured value
+     */
+    public void recordCorrected(long value, long expectedInterval) {
+        record(value);
+        if (expectedInterval <= 0) {
+            return;
+        }
+        for (long missed = value - expectedInterval; missed >= expectedInterval;
+             missed -= expectedInterval) {
+            record(missed);
+        }
+    }
+
+    /**
+     * copy the current counts into a histogram which can be queried
+     * @return new histogram
+     */
+    public LatencyHistogram snapshot() {
+        LatencyHistogram hist = new LatencyHistogram();
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+            long count = counts.get(i);
+            if (count != 0) {
+                hist.record(LatencyHistogram.bucketHighValue(i), count);
+            }
+        }
+        return hist;
+    }
+
+    /**
+     * forget all recorded values; values recorded at the same time may
+     * be lost
+     */
+    public void reset() {
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+            counts.set(i, 0L);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * BatchGenerator
+ *
+ * (c) 2026 IceCube Collaboration
+ */
+package icecube.daq.testUtil;
+
+import java.io.IOException;
+
+/**
+ * A generator which can be driven a slice at a time by a caller-supplied
+ * thread, instead of running its own thread from startProcessing().
+ */
+public interface BatchGenerator {
+
+    /**
+     * get ready to generate, without starting a thread
+     *
+     * @return <tt>false</tt> if the generator is already running or has
+     *         already run, in which case it must not be driven
+     * @throws IOException
+     */
+    public boolean prepareProcessing() throws IOException;
+
+    /**
+     * generate up to <tt>maxPayloads</tt> payloads.  Once the generator
+     * is stopped or has produced everything it was configured for, this
+     * sends the stop signal and returns <tt>false</tt>.
+     *
+     * @param maxPayloads most payloads to generate in this slice
+     * @return <tt>true</tt> if there is more to generate
+     * @throws IOException
+     */
+    public boolean generateBatch(int maxPayloads) throws IOException;
+
+    /**
+     * make the generator's sinks non-blocking, so a slice ends early when
+     * a consumer's pipe is full instead of waiting for it; whatever did not
+     * fit goes out first in the next slice.  Must be called before
+     * <tt>prepareProcessing()</tt>.
+     *
+     * @param nonBlocking <tt>true</tt> for non-blocking sinks
+     */
+    public void setNonBlocking(boolean nonBlocking);
+
+    /**
+     * did the last slice end early because a sink was full?
+     *
+     * @return <tt>true</tt> if the generator is waiting for a consumer
+     */
+    public boolean isBlocked();
+}
@@ -11,7 +11,8 @@
 package icecube.daq.testUtil;
 
 import java.nio.ByteBuffer;
-import java.util.Random;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
 
 /**
  * This class ...does what?
@@ -42,8 +43,27 @@ public class BufferUtil {
     private static final int SEQ_NUMBER_INDEX = 8;
     private static final int RANDOM_SUM_INDEX = 16;
     private static final int LAST_MSG_FLAG_INDEX = 20;
+    private static final int CHECKSUM_INDEX = 24;
+    private static final int FLAGS_INDEX = 28;
+    private static final int FLAG_CHECKSUM = 0x1;
     private static final int LAST_MESSAGE = 1;
     private static final int NOT_LAST_MESSAGE = 0;
+
+    // pattern bodies are copied from pre-rendered blocks; the block length
+    // is a multiple of 256 so the incrementing pattern stays in phase
+    private static final int PATTERN_BLOCK_BLEN = 4096;
+    private static final byte[][] PATTERN_BLOCKS = {
+        renderPatternBlock(BODY_PATTERN_ZERO),
+        renderPatternBlock(BODY_PATTERN_ONE),
+        renderPatternBlock(BODY_PATTERN_ALTERNATING_BITS),
+        renderPatternBlock(BODY_PATTERN_INC),
+    };
+    private static final long DEFAULT_RANDOM_SEED = 0x2545F4914F6CDD1DL;
+
+    private long randomState = DEFAULT_RANDOM_SEED;
+    private boolean checksumEnabled = false;
+    private CRC32 crc = new CRC32();
+    private byte[] crcScratch;
  
     /**
      * Create an instance of this class.
@@ -54,6 +74,36 @@ public class BufferUtil {
         localSeqNum = 0;
     }
 
+    private static byte[] renderPatternBlock(int type) {
+        byte[] block = new byte[PATTERN_BLOCK_BLEN];
+        for (int i = 0; i < block.length; i++) {
+            switch (type) {
+                case BODY_PATTERN_ONE:
+                    block[i] = (byte) 1;
+                    break;
+                case BODY_PATTERN_INC:
+                    block[i] = (byte) i;
+                    break;
+                case BODY_PATTERN_ALTERNATING_BITS:
+                    block[i] = (byte) 0xcc;
+                    break;
+                default:
+                    block[i] = (byte) 0;
+                    break;
+            }
+        }
+        return block;
+    }
+
+    /**
+     * Seed the generator used for BODY_PATTERN_RANDOM bodies, so a run
+     * can be repeated byte for byte.
+     */
+    public void setRandomSeed(long seed) {
+        // xorshift gets stuck at zero
+        randomState = (seed == 0 ? DEFAULT_RANDOM_SEED : seed);
+    }
+
     // instance member method (alphabetic)
     public  int requiredRawBufferBlen(int desiredBodyBlen) {
         return desiredBodyBlen +
@@ -73,6 +123,18 @@ public class BufferUtil {
         buffer.putInt(buffer.capacity());
     }
 
+    /**
+     * When enabled, createAndFillBuffer stores a CRC32 of the body in the
+     * header so receivers can check it with verifyChecksum().
+     */
+    public void setChecksumEnabled(boolean checksumEnabled) {
+        this.checksumEnabled = checksumEnabled;
+    }
+
+    public boolean isChecksumEnabled() {
+        return checksumEnabled;
+    }
+
     public  void createAndFillDefaultBuffer(ByteBuffer buffer) throws Exception {
         createAndFillBuffer(buffer, availableBodyBlen(buffer),
                 localSeqNum, DEFAULT_BODY_PATTERN);
@@ -91,6 +153,11 @@ public class BufferUtil {
         buffer.position(0);
         fillBufferHeader(buffer, seqNum, type);
         fillBufferBody(buffer, bodyBlen);
+        if (checksumEnabled) {
+            int bodyIndex = bodyIndex(buffer);
+            buffer.putInt(CHECKSUM_INDEX, (int) checksum(buffer, bodyIndex, bodyBlen));
+            buffer.putInt(FLAGS_INDEX, buffer.getInt(FLAGS_INDEX) | FLAG_CHECKSUM);
+        }
     }
 
     public   void fillBufferHeader(ByteBuffer buffer,
@@ -100,6 +167,7 @@ public class BufferUtil {
         buffer.putInt(seqNum);
         buffer.putInt(type);
         buffer.putInt(LAST_MSG_FLAG_INDEX, NOT_LAST_MESSAGE);
+        buffer.putInt(FLAGS_INDEX, 0);
     }
 
     public   void fillBufferBody(ByteBuffer buffer, int bodyBlen) throws Exception {
@@ -114,58 +182,78 @@ public class BufferUtil {
         buffer.putInt(bodyBlen);
         switch (type) {
             case BODY_PATTERN_ZERO:
-                {
-                    for (int i = 0; i < bodyBlen; i++) {
-                        buffer.put((byte) 0);
-                    }
-                }
-                break;
             case BODY_PATTERN_ONE:
-                {
-                    for (int i = 0; i < bodyBlen; i++) {
-                        buffer.put((byte) 1);
-                    }
-                }
-                break;
-            case BODY_PATTERN_INC:
-                {
-                    for (int i = 0; i < bodyBlen; i++) {
-                        buffer.put((byte) i);
-                    }
-                }
-                break;
             case BODY_PATTERN_ALTERNATING_BITS:
-                {
-                    for (int i = 0; i < bodyBlen; i++) {
-                        buffer.put((byte) 0xcc);
-                    }
-                }
+            case BODY_PATTERN_INC:
+                fillPattern(buffer, PATTERN_BLOCKS[type], bodyBlen);
                 break;
             case BODY_PATTERN_RANDOM:
-                {
-                    int sum = 0;
-                    for (int i = 0; i < bodyBlen; i++) {
-                        Random r = new Random();
-                        byte b = (byte) r.nextInt();
-                        sum += (int) b;
-                        byte ir = (byte) r.nextInt();
-                    }
-                    buffer.putInt(RANDOM_SUM_INDEX, sum);
-                }
+                buffer.putInt(RANDOM_SUM_INDEX, fillRandom(buffer, bodyBlen));
                 break;
         }
     }
 
+    private static void fillPattern(ByteBuffer buffer, byte[] block, int bodyBlen) {
+        int left = bodyBlen;
+        while (left >= block.length) {
+            buffer.put(block);
+            left -= block.length;
+        }
+        buffer.put(block, 0, left);
+    }
+
+    // fill with xorshift64* output, a long at a time, and return the sum
+    // of the (signed) bytes written
+    private int fillRandom(ByteBuffer buffer, int bodyBlen) {
+        long x = randomState;
+        int sum = 0;
+        int left = bodyBlen;
+        while (left > 0) {
+            x ^= x >>> 12;
+            x ^= x << 25;
+            x ^= x >>> 27;
+            long r = x * 0x2545F4914F6CDD1DL;
+            if (left >= 8) {
+                buffer.putLong(r);
+                for (int shift = 0; shift < 64; shift += 8) {
+                    sum += (byte) (r >>> shift);
+                }
+                left -= 8;
+            } else {
+                for (; left > 0; left--) {
+                    byte b = (byte) r;
+                    buffer.put(b);
+                    sum += b;
+                    r >>>= 8;
+                }
+            }
+        }
+        randomState = x;
+        return sum;
+    }
+
     public int bufferBlen(ByteBuffer buffer) {
         return buffer.getInt(0);
     }
 
     public  int compareBuffers(ByteBuffer buffer0, ByteBuffer buffer1) {
-        int sts = compareBufferHeaders(buffer0, buffer1);
+        return compareBuffers(buffer0, buffer1, null);
+    }
+
+    /**
+     * Compare two buffers and report where they differ.
+     *
+     * @param diffOffset if not <tt>null</tt>, element 0 is set to the
+     *                   offset of the first differing byte, or -1 if the
+     *                   buffers matched or could not be compared byte by byte
+     * @return COMPARE_SUCCESSFUL or one of the error codes
+     */
+    public  int compareBuffers(ByteBuffer buffer0, ByteBuffer buffer1, int[] diffOffset) {
+        int sts = compareBufferHeaders(buffer0, buffer1, diffOffset);
         if (sts != COMPARE_SUCCESSFUL) {
             return sts;
         }
-        sts = compareBufferBodys(buffer0, buffer1);
+        sts = compareBufferBodys(buffer0, buffer1, diffOffset);
         if (sts != COMPARE_SUCCESSFUL) {
             return sts;
         }
@@ -173,103 +261,156 @@ public class BufferUtil {
     }
 
     public  int compareBufferHeaders(ByteBuffer buffer0, ByteBuffer buffer1) {
+        return compareBufferHeaders(buffer0, buffer1, null);
+    }
+
+    /**
+     * Compare the headers of two buffers.
+     *
+     * @param diffOffset see compareBuffers(ByteBuffer, ByteBuffer, int[])
+     */
+    public  int compareBufferHeaders(ByteBuffer buffer0, ByteBuffer buffer1, int[] diffOffset) {
+        setDiffOffset(diffOffset, -1);
         int buffer0_blen = buffer0.getInt(0);
         int buffer1_blen = buffer1.getInt(0);
         int buffer0_header_blen = buffer0.getInt(INT_SIZE);
         int buffer1_header_blen = buffer1.getInt(INT_SIZE);
         if (buffer0_blen != buffer1_blen) {
+            setDiffOffset(diffOffset, 0);
             return HEADER_COMPARE_ERROR;
         }
         if (buffer0_header_blen != buffer1_header_blen) {
+            setDiffOffset(diffOffset, INT_SIZE);
             return HEADER_COMPARE_ERROR;
         }
-        if (buffer0_blen < INT_SIZE + buffer0_header_blen) {
-            return HEADER_FORMAT_ERROR;
-        }
-        if (buffer1_blen < INT_SIZE + buffer1_header_blen) {
+        if (buffer0_header_blen < 0 ||
+                buffer0_blen < INT_SIZE + INT_SIZE + buffer0_header_blen ||
+                buffer0.limit() < INT_SIZE + INT_SIZE + buffer0_header_blen ||
+                buffer1.limit() < INT_SIZE + INT_SIZE + buffer1_header_blen) {
             return HEADER_FORMAT_ERROR;
         }
-        for (int i = 0; i < buffer0_header_blen; i++) {
-            if (buffer0.get(INT_SIZE + i) !=
-                    buffer1.get(INT_SIZE + i)) {
-                return HEADER_COMPARE_ERROR;
-            }
+        int diff = mismatch(buffer0, buffer1, INT_SIZE + INT_SIZE, buffer0_header_blen);
+        if (diff >= 0) {
+            setDiffOffset(diffOffset, diff);
+            return HEADER_COMPARE_ERROR;
         }
         return COMPARE_SUCCESSFUL;
     }
 
     public  int compareBufferBodys(ByteBuffer buffer0, ByteBuffer buffer1) {
+        return compareBufferBodys(buffer0, buffer1, null);
+    }
+
+    /**
+     * Compare the bodies of two buffers.
+     *
+     * @param diffOffset see compareBuffers(ByteBuffer, ByteBuffer, int[])
+     */
+    public  int compareBufferBodys(ByteBuffer buffer0, ByteBuffer buffer1, int[] diffOffset) {
+        setDiffOffset(diffOffset, -1);
         int buffer0_blen = buffer0.getInt(0);
         int buffer1_blen = buffer1.getInt(0);
-        int buffer0_body_blen = buffer0.getInt(INT_SIZE);
-        int buffer1_body_blen = buffer1.getInt(INT_SIZE);
+        int buffer0_body_index = INT_SIZE + INT_SIZE + buffer0.getInt(INT_SIZE);
+        int buffer1_body_index = INT_SIZE + INT_SIZE + buffer1.getInt(INT_SIZE);
         if (buffer0_blen != buffer1_blen) {
+            setDiffOffset(diffOffset, 0);
             return BODY_COMPARE_ERROR;
         }
-        if (buffer0_body_blen != buffer1_body_blen) {
+        if (buffer0_body_index != buffer1_body_index) {
+            setDiffOffset(diffOffset, INT_SIZE);
             return BODY_COMPARE_ERROR;
         }
-        if (buffer0_blen < INT_SIZE + buffer0_body_blen) {
+        if (buffer0_blen < buffer0_body_index + INT_SIZE ||
+                buffer1_blen < buffer1_body_index + INT_SIZE) {
             return BODY_FORMAT_ERROR;
         }
-        if (buffer1_blen < INT_SIZE + buffer1_body_blen) {
+        int buffer0_body_blen = buffer0.getInt(buffer0_body_index);
+        int buffer1_body_blen = buffer1.getInt(buffer1_body_index);
+        if (buffer0_body_blen != buffer1_body_blen) {
+            setDiffOffset(diffOffset, buffer0_body_index);
+            return BODY_COMPARE_ERROR;
+        }
+        if (buffer0_body_blen < 0 ||
+                buffer0_blen < buffer0_body_index + INT_SIZE + buffer0_body_blen ||
+                buffer0.limit() < buffer0_body_index + INT_SIZE + buffer0_body_blen ||
+                buffer1.limit() < buffer1_body_index + INT_SIZE + buffer1_body_blen) {
             return BODY_FORMAT_ERROR;
         }
-        for (int i = 0; i < buffer0_body_blen; i++) {
-            if (buffer0.get(INT_SIZE + i) !=
-                    buffer1.get(INT_SIZE + i)) {
-                return BODY_COMPARE_ERROR;
-            }
+        int diff = mismatch(buffer0, buffer1, buffer0_body_index + INT_SIZE, buffer0_body_blen);
+        if (diff >= 0) {
+            setDiffOffset(diffOffset, diff);
+            return BODY_COMPARE_ERROR;
         }
         return COMPARE_SUCCESSFUL;
     }
 
+    private static void setDiffOffset(int[] diffOffset, int offset) {
+        if (diffOffset != null) {
+            diffOffset[0] = offset;
+        }
+    }
+
+    /**
+     * Compare <tt>len</tt> bytes of two buffers starting at the same
+     * absolute offset, eight bytes at a time.  Works on heap and direct
+     * buffers and ignores their positions.
+     *
+     * @return offset of the first differing byte, or -1 if they match
+     */
+    public static int mismatch(ByteBuffer buffer0, ByteBuffer buffer1, int offset, int len) {
+        int end = offset + len;
+        int i = offset;
+        if (buffer0.order() == buffer1.order()) {
+            boolean bigEndian = (buffer0.order() == ByteOrder.BIG_ENDIAN);
+            for (; i + 8 <= end; i += 8) {
+                long x = buffer0.getLong(i) ^ buffer1.getLong(i);
+                if (x != 0) {
+                    if (bigEndian) {
+                        return i + (Long.numberOfLeadingZeros(x) >>> 3);
+                    }
+                    return i + (Long.numberOfTrailingZeros(x) >>> 3);
+                }
+            }
+        }
+        for (; i < end; i++) {
+            if (buffer0.get(i) != buffer1.get(i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     public  boolean verifyBufferContents(ByteBuffer buffer) {
-        buffer.position(4 * INT_SIZE);
-        int type = buffer.getInt();
-        buffer.position(INT_SIZE + buffer.getInt(INT_SIZE));
-        int bodyBlen = buffer.getInt();
+        if (hasChecksum(buffer)) {
+            return verifyChecksum(buffer);
+        }
+
+        int type = buffer.getInt(3 * INT_SIZE);
+        int bodyIndex = bodyIndex(buffer);
+        int bodyBlen = buffer.getInt(bodyIndex - INT_SIZE);
         switch (type) {
             case BODY_PATTERN_ZERO:
-                {
-                    for (int i = 0; i < bodyBlen; i++) {
-                        if (buffer.getChar() != (char) 0) {
-                            return false;
-                        }
-                    }
-                }
             case BODY_PATTERN_ONE:
-                {
-                    for (int i = 0; i < bodyBlen; i++) {
-                        if (buffer.getChar() != (char) 1) {
-                            return false;
-                        }
-                    }
-                }
-            case BODY_PATTERN_INC:
-                {
-                    for (int i = 0; i < bodyBlen; i++) {
-                        if (buffer.getChar() != (char) i) {
-                            return false;
-                        }
-                    }
-                }
             case BODY_PATTERN_ALTERNATING_BITS:
+            case BODY_PATTERN_INC:
                 {
+                    byte[] block = PATTERN_BLOCKS[type];
                     for (int i = 0; i < bodyBlen; i++) {
-                        if (buffer.getChar() != (char) 0xcc) {
+                        if (buffer.get(bodyIndex + i) != block[i % PATTERN_BLOCK_BLEN]) {
                             return false;
                         }
                     }
                 }
+                break;
             case BODY_PATTERN_RANDOM:
                 {
                     int sum = 0;
                     for (int i = 0; i < bodyBlen; i++) {
-                        sum += (int) buffer.getChar();
+                        sum += buffer.get(bodyIndex + i);
+                    }
+                    if (sum != buffer.getInt(RANDOM_SUM_INDEX)) {
+                        return false;
                     }
-                    if (sum != buffer.getInt(RANDOM_SUM_INDEX))
-                        buffer.putInt(RANDOM_SUM_INDEX, sum);
                 }
                 break;
         }
@@ -277,6 +418,53 @@ public class BufferUtil {
         return true;
     }
 
+    public  boolean hasChecksum(ByteBuffer buffer) {
+        return (buffer.getInt(FLAGS_INDEX) & FLAG_CHECKSUM) != 0;
+    }
+
+    /**
+     * Recompute the CRC32 of the body and compare it with the one stored
+     * by createAndFillBuffer.
+     *
+     * @return false if the buffer has no checksum or it does not match
+     */
+    public  boolean verifyChecksum(ByteBuffer buffer) {
+        if (!hasChecksum(buffer)) {
+            return false;
+        }
+        int bodyIndex = bodyIndex(buffer);
+        int bodyBlen = buffer.getInt(bodyIndex - INT_SIZE);
+        if (bodyBlen < 0 || bodyIndex + bodyBlen > buffer.limit()) {
+            return false;
+        }
+        return (int) checksum(buffer, bodyIndex, bodyBlen) == buffer.getInt(CHECKSUM_INDEX);
+    }
+
+    // offset of the first body byte, just past the body length
+    private static int bodyIndex(ByteBuffer buffer) {
+        return INT_SIZE + INT_SIZE + buffer.getInt(INT_SIZE) + INT_SIZE;
+    }
+
+    private long checksum(ByteBuffer buffer, int offset, int len) {
+        crc.reset();
+        if (buffer.hasArray()) {
+            crc.update(buffer.array(), buffer.arrayOffset() + offset, len);
+        } else {
+            if (crcScratch == null) {
+                crcScratch = new byte[PATTERN_BLOCK_BLEN * 4];
+            }
+            ByteBuffer dup = buffer.duplicate();
+            dup.limit(offset + len);
+            dup.position(offset);
+            while (dup.hasRemaining()) {
+                int n = Math.min(dup.remaining(), crcScratch.length);
+                dup.get(crcScratch, 0, n);
+                crc.update(crcScratch, 0, n);
+            }
+        }
+        return crc.getValue();
+    }
+
     public  int getSequenceNumber(ByteBuffer buffer) {
         return buffer.getInt(SEQ_NUMBER_INDEX);
     }
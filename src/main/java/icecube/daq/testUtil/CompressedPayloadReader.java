@@ -0,0 +1,411 @@
+/**
+ * CompressedPayloadReader
+ *
+ * (c) 2026 IceCube Collaboration
+ */
+package icecube.daq.testUtil;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a file written by CompressedPayloadWriter.  Blocks are inflated
+ * by a pool of worker threads (shared by all readers) up to
+ * <tt>readAhead</tt> blocks ahead of the consumer, so replay is limited by
+ * the compressed file size rather than the uncompressed one.
+ * <p/>
+ * Payloads are handed out as read-only slices of the inflated block, and
+ * stay valid after the reader moves on.
+ * <p/>
+ * Several readers can share out one file by each taking every
+ * <tt>stride</tt>-th block, so each block is inflated only once.
+ */
+public class CompressedPayloadReader implements PayloadIterator {
+
+    public static final int DEFAULT_READ_AHEAD =
+        Math.max(2, 2 * Runtime.getRuntime().availableProcessors());
+
+    private static final int TIME_OFFSET = 8;
+
+    private static ExecutorService pool;
+
+    private final String fileName;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+
+    // block index, from the end of the file
+    private long[] blockOffsets;
+    private long[] blockTimes;
+    private int[] blockCounts;
+    private long numPayloads;
+
+    private int readAhead = DEFAULT_READ_AHEAD;
+    /** next block to hand to the pool */
+    private int nextBlock = 0;
+    /** inflated blocks, oldest first */
+    private LinkedList inflating = new LinkedList();
+    private ByteBuffer block;
+
+    // every stride-th block, starting at the first one
+    private int firstBlock = 0;
+    private int stride = 1;
+
+    // optional time range
+    private long firstTime = Long.MIN_VALUE;
+    private long lastTime = Long.MAX_VALUE;
+
+    private boolean closed = false;
+
+    /**
+     * open a compressed payload file
+     * @param fileName name of the file
+     * @throws IOException if the file cannot be opened or is not a
+     *                     compressed payload file
+     */
+    public CompressedPayloadReader(String fileName) throws IOException {
+        this(fileName, 0, 1);
+    }
+
+    /**
+     * read the payloads in every <tt>stride</tt>-th block of a compressed
+     * payload file, starting at block <tt>first</tt>
+     * @param fileName name of the file
+     * @param first number of the first block to read
+     * @param stride distance between successive blocks
+     * @throws IOException if the file cannot be opened or is not a
+     *                     compressed payload file
+     */
+    public CompressedPayloadReader(String fileName, int first, int stride) throws IOException {
+        if (first < 0 || stride < 1) {
+            throw new IllegalArgumentException("Bad first " + first + " stride " + stride);
+        }
+        this.fileName = fileName;
+        this.stride = stride;
+        firstBlock = first;
+        nextBlock = first;
+
+        file = new RandomAccessFile(fileName, "r");
+        channel = file.getChannel();
+        try {
+            readIndex();
+        } catch (IOException ioe) {
+            file.close();
+            throw ioe;
+        }
+    }
+
+    /**
+     * is this a compressed payload file?
+     * @param channel open file
+     * @return <tt>true</tt> if the file starts with the compressed file magic
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isCompressed(FileChannel channel) throws IOException {
+        if (channel.size() < CompressedPayloadWriter.HEADER_BLEN +
+            CompressedPayloadWriter.TRAILER_BLEN)
+        {
+            return false;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(4);
+        readFully(channel, buf, 0);
+        return buf.getInt(0) == CompressedPayloadWriter.MAGIC;
+    }
+
+    private void readIndex() throws IOException {
+        long size = channel.size();
+        if (!isCompressed(channel)) {
+            throw new IOException(fileName + " is not a compressed payload file");
+        }
+
+        ByteBuffer trailer = ByteBuffer.allocate(CompressedPayloadWriter.TRAILER_BLEN);
+        readFully(channel, trailer, size - CompressedPayloadWriter.TRAILER_BLEN);
+        int numBlocks = trailer.getInt(0);
+        long indexOffset = trailer.getLong(4);
+        if (trailer.getInt(12) != CompressedPayloadWriter.END_MAGIC) {
+            throw new IOException(fileName + " is truncated (no block index)");
+        }
+        if (numBlocks < 0 || indexOffset + (long) numBlocks *
+            CompressedPayloadWriter.INDEX_ENTRY_BLEN + CompressedPayloadWriter.TRAILER_BLEN != size)
+        {
+            throw new IOException("Bad block index in " + fileName);
+        }
+
+        ByteBuffer idx = ByteBuffer.allocate(numBlocks * CompressedPayloadWriter.INDEX_ENTRY_BLEN);
+        readFully(channel, idx, indexOffset);
+        blockOffsets = new long[numBlocks];
+        blockTimes = new long[numBlocks];
+        blockCounts = new int[numBlocks];
+        for (int i = 0; i < numBlocks; i++) {
+            blockOffsets[i] = idx.getLong();
+            blockTimes[i] = idx.getLong();
+            blockCounts[i] = idx.getInt();
+            numPayloads += blockCounts[i];
+        }
+    }
+
+    /**
+     * set how many blocks may be inflated ahead of the consumer
+     * @param readAhead number of blocks
+     */
+    public void setReadAhead(int readAhead) {
+        if (readAhead < 1) {
+            throw new IllegalArgumentException("Bad read-ahead " + readAhead);
+        }
+        this.readAhead = readAhead;
+    }
+
+    public int getReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * only return payloads with <tt>firstTime &lt;= time &lt; lastTime</tt>,
+     * skipping straight to the block which holds the first one.  The file
+     * must be in time order, and this must be called before the first
+     * <tt>nextPayload()</tt>.
+     * @param firstTime start of the range
+     * @param lastTime end of the range (exclusive)
+     */
+    public void setTimeRange(long firstTime, long lastTime) {
+        if (block != null || !inflating.isEmpty()) {
+            throw new IllegalStateException("Reader for " + fileName + " has already started");
+        }
+        this.firstTime = firstTime;
+        this.lastTime = lastTime;
+
+        // find the last block starting before firstTime
+        int lo = 0;
+        int hi = blockTimes.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (blockTimes[mid] < firstTime) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int start = Math.max(0, lo - 1);
+        if (start > firstBlock) {
+            // earlier blocks end before the range, so round up to the
+            // next of this reader's blocks
+            nextBlock = firstBlock + ((start - firstBlock + stride - 1) / stride) * stride;
+        }
+    }
+
+    /**
+     * get the total number of payloads in the file
+     * @return number of payloads
+     */
+    public long getPayloadCount() {
+        return numPayloads;
+    }
+
+    /**
+     * get the number of compressed blocks in the file
+     * @return number of blocks
+     */
+    public int getBlockCount() {
+        return blockOffsets.length;
+    }
+
+    public ByteBuffer nextPayload() throws IOException {
+        if (closed) {
+            throw new IOException("Reader for " + fileName + " is closed");
+        }
+        while (true) {
+            if (block == null || !block.hasRemaining()) {
+                block = nextBlock();
+                if (block == null) {
+                    return null;
+                }
+            }
+
+            int pos = block.position();
+            int len = block.getInt(pos);
+            if (len < BufferUtil.INT_SIZE || len > block.remaining()) {
+                throw new IOException("Bad payload length " + len + " in " + fileName);
+            }
+            if (len >= TIME_OFFSET + 8) {
+                long time = block.getLong(pos + TIME_OFFSET);
+                if (time >= lastTime) {
+                    block = null;
+                    nextBlock = blockOffsets.length;
+                    cancel();
+                    return null;
+                }
+                if (time < firstTime) {
+                    block.position(pos + len);
+                    continue;
+                }
+            }
+
+            ByteBuffer dup = block.duplicate();
+            dup.limit(pos + len);
+            block.position(pos + len);
+            return dup.slice();
+        }
+    }
+
+    /**
+     * copy the next payload into a buffer, in the same way as
+     * <tt>PayloadReader.readNextPayload()</tt>
+     * @param buf buffer to fill starting at position 0
+     * @return number of bytes read
+     * @throws EOFException at the end of the file
+     * @throws IOException if the payload does not fit in the buffer
+     */
+    public int readNextPayload(ByteBuffer buf) throws IOException {
+        ByteBuffer payload = nextPayload();
+        if (payload == null) {
+            throw new EOFException("End of " + fileName);
+        }
+        if (payload.remaining() > buf.capacity()) {
+            throw new IOException("Payload is " + payload.remaining() +
+                                  " bytes, but buffer only holds " + buf.capacity());
+        }
+        buf.clear();
+        buf.put(payload);
+        return buf.position();
+    }
+
+    // wait for the oldest inflating block, topping up the read-ahead first
+    private ByteBuffer nextBlock() throws IOException {
+        while (inflating.size() < readAhead && nextBlock < blockOffsets.length) {
+            inflating.addLast(getPool().submit(new BlockInflater(nextBlock)));
+            nextBlock += stride;
+        }
+        if (inflating.isEmpty()) {
+            return null;
+        }
+
+        Future future = (Future) inflating.removeFirst();
+        try {
+            ByteBuffer buf = (ByteBuffer) future.get();
+            if (nextBlock < blockOffsets.length) {
+                inflating.addLast(getPool().submit(new BlockInflater(nextBlock)));
+                nextBlock += stride;
+            }
+            return buf.asReadOnlyBuffer();
+        } catch (InterruptedException ie) {
+            throw new IOException("Interrupted while reading " + fileName);
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            IOException ioe = new IOException("Cannot inflate block of " + fileName);
+            ioe.initCause(cause);
+            throw ioe;
+        }
+    }
+
+    private void cancel() {
+        while (!inflating.isEmpty()) {
+            ((Future) inflating.removeFirst()).cancel(false);
+        }
+    }
+
+    /**
+     * stop reading ahead and close the file
+     * @throws IOException if the file cannot be closed
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        cancel();
+        block = null;
+        file.close();
+    }
+
+    private static synchronized ExecutorService getPool() {
+        if (pool == null) {
+            int numThreads = Runtime.getRuntime().availableProcessors();
+            pool = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+                    private int num = 0;
+
+                    public synchronized Thread newThread(Runnable r) {
+                        Thread t = new Thread(r);
+                        t.setName("BlockInflater-" + (num++));
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        }
+        return pool;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long offset)
+        throws IOException
+    {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, offset);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of file at offset " + offset);
+            }
+            offset += n;
+        }
+        buf.flip();
+    }
+
+    // read and inflate one block; FileChannel positional reads are safe
+    // from several threads at once
+    class BlockInflater implements Callable {
+        private int blockNum;
+
+        BlockInflater(int blockNum) {
+            this.blockNum = blockNum;
+        }
+
+        public Object call() throws IOException {
+            long offset = blockOffsets[blockNum];
+            ByteBuffer hdr = ByteBuffer.allocate(CompressedPayloadWriter.BLOCK_HEADER_BLEN);
+            readFully(channel, hdr, offset);
+            int compLen = hdr.getInt(0);
+            int rawLen = hdr.getInt(4);
+            if (compLen < 0 || rawLen < 0 || hdr.getInt(8) != blockCounts[blockNum]) {
+                throw new IOException("Bad header for block " + blockNum + " of " + fileName);
+            }
+
+            ByteBuffer comp = ByteBuffer.allocate(compLen);
+            readFully(channel, comp, offset + CompressedPayloadWriter.BLOCK_HEADER_BLEN);
+
+            byte[] raw = new byte[rawLen];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(comp.array(), 0, compLen);
+                int n = 0;
+                while (n < rawLen && !inflater.finished()) {
+                    int got = inflater.inflate(raw, n, rawLen - n);
+                    if (got == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    n += got;
+                }
+                if (n != rawLen) {
+                    throw new IOException("Block " + blockNum + " of " + fileName +
+                                          " inflated to " + n + " bytes, expected " + rawLen);
+                }
+            } catch (DataFormatException dfe) {
+                throw new IOException("Corrupt block " + blockNum + " of " + fileName +
+                                      ": " + dfe.getMessage());
+            } finally {
+                inflater.end();
+            }
+            return ByteBuffer.wrap(raw);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/**
+ * CompressedPayloadWriter
+ *
+ * (c) 2026 IceCube Collaboration
+ */
+package icecube.daq.testUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+/**
+ * Writes payloads as a block-compressed payload file.  Whole payloads are
+ * collected into blocks of about <tt>blockSize</tt> uncompressed bytes,
+ * and each block is deflated on its own so blocks can be inflated
+ * independently (and in parallel) by CompressedPayloadReader.
+ * <p/>
+ * File layout (all values big-endian):
+ * <pre>
+ * header:  int MAGIC, int VERSION, int blockSize, int 0
+ * block:   int compressedLen, int rawLen, int numPayloads, long firstTime,
+ *          compressedLen bytes of deflated payloads
+ * ...
+ * index:   for each block: long fileOffset, long firstTime, int numPayloads
+ * trailer: int numBlocks, long indexOffset, int END_MAGIC
+ * </pre>
+ * The first time is the time (long at offset 8) of the block's first
+ * payload, or -1 if that payload is too short to have one.
+ */
+public class CompressedPayloadWriter {
+
+    public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+
+    static final int MAGIC = 0x50425A31;        // "PBZ1"
+    static final int END_MAGIC = 0x50425A45;    // "PBZE"
+    static final int VERSION = 1;
+    static final int HEADER_BLEN = 16;
+    static final int BLOCK_HEADER_BLEN = 20;
+    static final int INDEX_ENTRY_BLEN = 20;
+    static final int TRAILER_BLEN = 16;
+
+    private static final int TIME_OFFSET = 8;
+
+    private GroupCommitWriter writer;
+    private int blockSize;
+    private Deflater deflater;
+
+    private ByteBuffer raw;
+    private byte[] compressed;
+    private int numPayloads;
+    private long firstTime;
+
+    // block index, kept as growing columns
+    private long[] blockOffsets = new long[64];
+    private long[] blockTimes = new long[64];
+    private int[] blockCounts = new int[64];
+    private int numBlocks;
+
+    private long totalPayloads;
+    private long rawBytes;
+    private boolean closed = false;
+
+    /**
+     * start a compressed file with default settings
+     * @param writer writer for the (empty) file
+     * @throws IOException if the header cannot be written
+     */
+    public CompressedPayloadWriter(GroupCommitWriter writer) throws IOException {
+        this(writer, DEFAULT_BLOCK_SIZE, Deflater.BEST_SPEED);
+    }
+
+    /**
+     * start a compressed file
+     * @param writer writer for the (empty) file
+     * @param blockSize uncompressed bytes per block
+     * @param level Deflater compression level
+     * @throws IOException if the header cannot be written
+     */
+    public CompressedPayloadWriter(GroupCommitWriter writer, int blockSize, int level)
+        throws IOException
+    {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Bad block size " + blockSize);
+        }
+        this.writer = writer;
+        this.blockSize = blockSize;
+        deflater = new Deflater(level);
+        raw = ByteBuffer.allocate(blockSize);
+        compressed = new byte[blockSize + blockSize / 8 + 64];
+
+        ByteBuffer hdr = ByteBuffer.allocate(HEADER_BLEN);
+        hdr.putInt(MAGIC);
+        hdr.putInt(VERSION);
+        hdr.putInt(blockSize);
+        hdr.putInt(0);
+        hdr.flip();
+        writer.write(hdr);
+    }
+
+    /**
+     * add a payload to the current block, writing the block out first if
+     * the payload would not fit
+     * @param payload whole payload, including its length prefix
+     * @throws IOException if a block cannot be written
+     */
+    public void write(ByteBuffer payload) throws IOException {
+        if (closed) {
+            throw new IOException("Writer is closed");
+        }
+        int len = payload.remaining();
+        if (numPayloads > 0 && raw.remaining() < len) {
+            writeBlock();
+        }
+        if (raw.remaining() < len) {
+            // a payload bigger than a block gets a block of its own
+            ByteBuffer big = ByteBuffer.allocate(len);
+            raw.flip();
+            big.put(raw);
+            raw = big;
+        }
+        if (numPayloads == 0) {
+            firstTime = (len >= TIME_OFFSET + 8 ?
+                         payload.getLong(payload.position() + TIME_OFFSET) : -1L);
+        }
+        raw.put(payload);
+        numPayloads++;
+        totalPayloads++;
+        rawBytes += len;
+    }
+
+    /**
+     * write the last block and the block index, then close the file
+     * @throws IOException if the file cannot be written
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            if (numPayloads > 0) {
+                writeBlock();
+            }
+
+            long indexOffset = writer.getPosition();
+            ByteBuffer idx = ByteBuffer.allocate(numBlocks * INDEX_ENTRY_BLEN + TRAILER_BLEN);
+            for (int i = 0; i < numBlocks; i++) {
+                idx.putLong(blockOffsets[i]);
+                idx.putLong(blockTimes[i]);
+                idx.putInt(blockCounts[i]);
+            }
+            idx.putInt(numBlocks);
+            idx.putLong(indexOffset);
+            idx.putInt(END_MAGIC);
+            idx.flip();
+            writer.write(idx);
+        } finally {
+            closed = true;
+            deflater.end();
+            writer.close();
+        }
+    }
+
+    public long getPayloadCount() {
+        return totalPayloads;
+    }
+
+    public long getUncompressedBytes() {
+        return rawBytes;
+    }
+
+    /**
+     * get the number of bytes written so far, including headers
+     * @return file position
+     */
+    public long getCompressedBytes() {
+        return writer.getPosition();
+    }
+
+    // deflate the current block and hand it to the writer
+    private void writeBlock() throws IOException {
+        int rawLen = raw.position();
+        int bound = rawLen + rawLen / 8 + 64;
+        if (compressed.length < bound) {
+            compressed = new byte[bound];
+        }
+
+        deflater.reset();
+        deflater.setInput(raw.array(), 0, rawLen);
+        deflater.finish();
+        int compLen = 0;
+        while (!deflater.finished()) {
+            if (compLen == compressed.length) {
+                byte[] tmp = new byte[compressed.length * 2];
+                System.arraycopy(compressed, 0, tmp, 0, compLen);
+                compressed = tmp;
+            }
+            compLen += deflater.deflate(compressed, compLen, compressed.length - compLen);
+        }
+
+        if (numBlocks == blockOffsets.length) {
+            growIndex();
+        }
+        blockOffsets[numBlocks] = writer.getPosition();
+        blockTimes[numBlocks] = firstTime;
+        blockCounts[numBlocks] = numPayloads;
+        numBlocks++;
+
+        ByteBuffer hdr = ByteBuffer.allocate(BLOCK_HEADER_BLEN);
+        hdr.putInt(compLen);
+        hdr.putInt(rawLen);
+        hdr.putInt(numPayloads);
+        hdr.putLong(firstTime);
+        hdr.flip();
+        writer.write(hdr);
+        writer.write(ByteBuffer.wrap(compressed, 0, compLen));
+
+        if (raw.capacity() > blockSize) {
+            raw = ByteBuffer.allocate(blockSize);
+        } else {
+            raw.clear();
+        }
+        numPayloads = 0;
+    }
+
+    private void growIndex() {
+        int newCapacity = numBlocks * 2;
+
+        long[] newOffsets = new long[newCapacity];
+        System.arraycopy(blockOffsets, 0, newOffsets, 0, numBlocks);
+        blockOffsets = newOffsets;
+
+        long[] newTimes = new long[newCapacity];
+        System.arraycopy(blockTimes, 0, newTimes, 0, numBlocks);
+        blockTimes = newTimes;
+
+        int[] newCounts = new int[newCapacity];
+        System.arraycopy(blockCounts, 0, newCounts, 0, numBlocks);
+        blockCounts = newCounts;
+    }
+}
@@ -25,15 +25,17 @@ public class DisposerOutputDestination implements OutputDestination, Runnable {
     private Pipe pipe;
     private int processID = 0;
     private boolean stop = true;
-    private ByteBuffer buf = ByteBuffer.allocate(BufferUtil.DEFAULT_BUFFER_BLEN);
+    private FrameDecoder decoder = new FrameDecoder();
     private boolean running = false;
+    private PayloadMetrics metrics;
+    private LatencyTracer tracer;
 
     private Log log = LogFactory.getLog(DisposerOutputDestination.class);
 
     // create the channel to read from and write to
     public DisposerOutputDestination(int processID) throws IOException{
 
-        pipe = Pipe.open();
+        pipe = PipeFactory.open();
 
         sourceChannel = pipe.source();
         sourceChannel.configureBlocking(true);
@@ -70,6 +72,10 @@ public class DisposerOutputDestination implements OutputDestination, Runnable {
     }
 
     public void startProcessing(){
+        if (metrics == null){
+            metrics = MetricsRegistry.register(MetricsRegistry.OUTPUT_DESTINATION, "DisposerOutputDestination", processID);
+        }
+        tracer = LatencyTracer.getTracer();
         if (stop){
             stop = false;
         }
@@ -85,14 +91,20 @@ public class DisposerOutputDestination implements OutputDestination, Runnable {
 
         while(!stop){
             try {
-                buf.limit(BufferUtil.INT_SIZE);
-                buf.position(0);
-                while (buf.hasRemaining()) {
-                    sourceChannel.read(buf);
+                ByteBuffer frame = decoder.nextFrame();
+                if (frame == null){
+                    long start = (metrics == null ? 0L : System.nanoTime());
+                    int nRead = decoder.fill(sourceChannel);
+                    if (metrics != null){
+                        metrics.recordLatency(System.nanoTime() - start);
+                    }
+                    if (nRead < 0){
+                        throw new IOException("DisposerOutputDestination ID: " + processID + " lost its input before the STOP signal");
+                    }
+                    continue;
                 }
-                buf.position(0);
-                int recLength = buf.getInt(0);
-                if (recLength == BufferUtil.INT_SIZE){
+                int recLength = frame.remaining();
+                if (FrameDecoder.isStopFrame(frame)){
                     stop = true;
                     if (log.isInfoEnabled()){
                         log.info("DisposerOutputDestination ID: " + processID + " got a STOP signal");
@@ -100,17 +112,12 @@ public class DisposerOutputDestination implements OutputDestination, Runnable {
                     running = false;
                     return;
                 }
-                buf.clear();
-                if (recLength > BufferUtil.DEFAULT_BUFFER_BLEN){
-                    buf = ByteBuffer.allocate(recLength);
-                    System.out.println("Creating a new ByteBuffer of length: " + recLength);
+                if (metrics != null){
+                    metrics.addPayloads(1, recLength);
                 }
-                buf.limit(recLength - BufferUtil.INT_SIZE);
-                buf.position(0);
-                while (buf.hasRemaining()) {
-                    sourceChannel.read(buf);
+                if (tracer != null){
+                    tracer.received(frame);
                 }
-                buf.clear();
                 if (log.isDebugEnabled()){
                     log.debug("dispose ByteBuffer from Channel ID: " + processID + " length: " + recLength);
                 }
@@ -0,0 +1,403 @@
+/**
+ * EventCorpus
+ *
+ * (c) 2026 IceCube Collaboration
+ */
+package icecube.daq.testUtil;
+
+import icecube.daq.sim.GenericHit;
+import icecube.daq.sim.GenericTriggerRequest;
+import icecube.daq.sim.IGenerator;
+import icecube.daq.sim.ISource;
+import icecube.daq.sim.RandomTriggerRequest;
+import icecube.daq.sim.TriggerRequestGenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A fixed number of events generated once and stored as ready-to-send
+ * payloads: channel 0 holds the trigger requests and channels 1..n the
+ * hits for each hub.  Replaying a corpus costs a buffer write per block
+ * of events instead of a simulation and serialization per payload.
+ * <p/>
+ * When the replay loops, <tt>advanceLoop()</tt> moves every payload's
+ * envelope time, and each trigger request's UID and first/last times,
+ * past the end of the previous pass, so the stream keeps increasing.
+ * Other time fields inside the payloads are left as generated.
+ * <p/>
+ * A corpus lives in a direct buffer, or in a file which is mapped
+ * privately so the rewrites never reach the disk.  Files are laid out as
+ * <pre>
+ *   int magic, int version, int numChannels, int numEvents,
+ *   long timeSpan, int uidSpan, int unused,
+ *   int[numChannels][numEvents + 1] event offsets,
+ *   payload data
+ * </pre>
+ */
+public class EventCorpus {
+
+    public static final int TRIGGER_CHANNEL = 0;
+
+    private static final int MAGIC = 0x45564331;   // "EVC1"
+    private static final int VERSION = 1;
+    private static final int HEADER_BLEN = 32;
+
+    // trigger request fields rewritten on each loop
+    private static final int TIME_OFFSET = 8;
+    private static final int UID_OFFSET = 18;
+    private static final int FIRST_TIME_OFFSET = 34;
+    private static final int LAST_TIME_OFFSET = 42;
+    private static final int TRIGGER_MIN_BLEN = LAST_TIME_OFFSET + 8;
+
+    private static final int INITIAL_CHANNEL_BLEN = 64 * 1024;
+
+    private static Log log = LogFactory.getLog(EventCorpus.class);
+
+    private ByteBuffer data;
+    private int numChannels;
+    private int numEvents;
+    private long timeSpan;
+    private int uidSpan;
+    private int loops;
+
+    private EventCorpus(ByteBuffer data) throws IOException {
+        this.data = data;
+        if (data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+            throw new IOException("Not an event corpus");
+        }
+        numChannels = data.getInt(8);
+        numEvents = data.getInt(12);
+        timeSpan = data.getLong(16);
+        uidSpan = data.getInt(24);
+        if (numChannels < 1 || numEvents < 1 ||
+            indexPosition(numChannels, numEvents) > data.capacity() ||
+            offset(numChannels - 1, numEvents) != data.capacity()) {
+            throw new IOException("Corrupt event corpus");
+        }
+    }
+
+    /**
+     * generate a corpus in memory
+     * @param trigReqSrc trigger request source, which also feeds its hit sources
+     * @param hitGen hit payload generator
+     * @param numEvents number of trigger requests to generate
+     * @param writeHits <tt>false</tt> to leave the hub channels empty
+     * @return new corpus
+     * @throws IOException if a generated payload is invalid
+     */
+    public static EventCorpus generate(RandomTriggerRequest trigReqSrc, IGenerator hitGen,
+                                       int numEvents, boolean writeHits) throws IOException {
+        if (numEvents < 1) {
+            throw new IllegalArgumentException("Corpus must hold at least one event");
+        }
+
+        TriggerRequestGenerator trigReqGen = new TriggerRequestGenerator();
+        ISource[] hitSrcs = trigReqSrc.getHitSources();
+        int numChannels = hitSrcs.length + 1;
+
+        ByteBuffer[] chanData = new ByteBuffer[numChannels];
+        int[][] chanOffsets = new int[numChannels][numEvents + 1];
+        for (int c = 0; c < numChannels; c++) {
+            chanData[c] = ByteBuffer.allocateDirect(INITIAL_CHANNEL_BLEN);
+        }
+
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+        int minUid = Integer.MAX_VALUE;
+        int maxUid = Integer.MIN_VALUE;
+        long firstTrigTime = 0L;
+        long lastTrigTime = 0L;
+
+        int generated = 0;
+        while (generated < numEvents) {
+            GenericTriggerRequest trigReq = (GenericTriggerRequest) trigReqSrc.nextPayload();
+            if (trigReq == null) {
+                break;
+            }
+            if (generated == 0) {
+                firstTrigTime = trigReq.getTimeStamp();
+            }
+            lastTrigTime = trigReq.getTimeStamp();
+            minUid = Math.min(minUid, trigReq.getTriggerUID());
+            maxUid = Math.max(maxUid, trigReq.getTriggerUID());
+
+            ByteBuffer buf = payload(trigReqGen.generatePayload(trigReq));
+            if (buf.remaining() < TRIGGER_MIN_BLEN) {
+                throw new IOException("Trigger request payload too short: " + buf.remaining());
+            }
+            chanData[TRIGGER_CHANNEL] = append(chanData[TRIGGER_CHANNEL], buf);
+
+            for (int i = 0; i < hitSrcs.length; i++) {
+                while (true) {
+                    GenericHit hit = (GenericHit) hitSrcs[i].nextPayload();
+                    if (hit == null) {
+                        break;
+                    }
+                    if (writeHits) {
+                        buf = payload(hitGen.generatePayload(hit));
+                        long time = buf.getLong(TIME_OFFSET);
+                        minTime = Math.min(minTime, time);
+                        maxTime = Math.max(maxTime, time);
+                        chanData[i + 1] = append(chanData[i + 1], buf);
+                    }
+                }
+            }
+
+            generated++;
+            for (int c = 0; c < numChannels; c++) {
+                chanOffsets[c][generated] = chanData[c].position();
+            }
+        }
+        if (generated == 0) {
+            throw new IOException("Trigger request source returned no events");
+        }
+
+        minTime = Math.min(minTime, firstTrigTime);
+        maxTime = Math.max(maxTime, lastTrigTime);
+
+        // leave one average trigger spacing between passes
+        long spacing = 1L;
+        if (generated > 1) {
+            spacing = Math.max(1L, (lastTrigTime - firstTrigTime) / (generated - 1));
+        }
+
+        long dataBlen = 0;
+        for (int c = 0; c < numChannels; c++) {
+            dataBlen += chanData[c].position();
+        }
+        long totalBlen = HEADER_BLEN + (long) numChannels * (generated + 1) * BufferUtil.INT_SIZE + dataBlen;
+        if (totalBlen > Integer.MAX_VALUE) {
+            throw new IOException("Event corpus would need " + totalBlen + " bytes; use fewer events");
+        }
+
+        ByteBuffer data = ByteBuffer.allocateDirect((int) totalBlen);
+        data.putInt(0, MAGIC);
+        data.putInt(4, VERSION);
+        data.putInt(8, numChannels);
+        data.putInt(12, generated);
+        data.putLong(16, maxTime - minTime + spacing);
+        data.putInt(24, maxUid - minUid + 1);
+
+        int pos = HEADER_BLEN + numChannels * (generated + 1) * BufferUtil.INT_SIZE;
+        for (int c = 0; c < numChannels; c++) {
+            int idx = indexPosition(c, generated);
+            for (int e = 0; e <= generated; e++) {
+                data.putInt(idx + e * BufferUtil.INT_SIZE, pos + chanOffsets[c][e]);
+            }
+            chanData[c].flip();
+            data.position(pos);
+            data.put(chanData[c]);
+            pos += chanData[c].limit();
+        }
+        data.clear();
+
+        if (log.isInfoEnabled()) {
+            log.info("Generated event corpus of " + generated + " events on " +
+                     numChannels + " channels (" + totalBlen + " bytes)");
+        }
+        return new EventCorpus(data);
+    }
+
+    /**
+     * map a saved corpus; changes made while replaying are not written
+     * back.  A file which cannot be opened for writing (as a private
+     * mapping requires) is read into memory instead.
+     * @param file corpus file
+     * @return corpus
+     * @throws IOException if the file cannot be read or is not a corpus
+     */
+    public static EventCorpus load(File file) throws IOException {
+        boolean writable = file.canWrite();
+        RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to be an event corpus");
+            }
+            ByteBuffer data;
+            if (writable) {
+                data = channel.map(FileChannel.MapMode.PRIVATE, 0, size);
+            } else {
+                data = ByteBuffer.allocateDirect((int) size);
+                while (data.hasRemaining()) {
+                    if (channel.read(data) < 0) {
+                        throw new IOException("Unexpected end of " + file);
+                    }
+                }
+                data.clear();
+            }
+            return new EventCorpus(data);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * write the corpus, as it was generated, to a file
+     * @param file corpus file, replaced atomically
+     * @throws IOException if the file cannot be written
+     */
+    public void save(File file) throws IOException {
+        if (loops != 0) {
+            throw new IllegalStateException("Cannot save a corpus after it has been replayed");
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            channel.truncate(0);
+            ByteBuffer buf = data.duplicate();
+            buf.clear();
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            channel.force(false);
+        } finally {
+            raf.close();
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Cannot rename " + tmp + " to " + file);
+            }
+        }
+    }
+
+    public int getNumChannels() {
+        return numChannels;
+    }
+
+    public int getNumEvents() {
+        return numEvents;
+    }
+
+    /**
+     * get the DAQ time covered by one pass through the corpus
+     * @return time in 0.1 ns ticks
+     */
+    public long getTimeSpan() {
+        return timeSpan;
+    }
+
+    /**
+     * get the number of times the corpus has been advanced
+     * @return number of completed loops
+     */
+    public int getLoops() {
+        return loops;
+    }
+
+    /**
+     * write a run of events from one channel
+     * @param channel TRIGGER_CHANNEL, or 1 + hub number
+     * @param firstEvent first event to write
+     * @param count number of events to write
+     * @param out channel to write to
+     * @return number of bytes written
+     * @throws IOException if the write fails
+     */
+    public int write(int channel, int firstEvent, int count, WritableByteChannel out)
+        throws IOException {
+        if (firstEvent < 0 || count < 0 || firstEvent + count > numEvents) {
+            throw new IndexOutOfBoundsException("Bad event range " + firstEvent + "+" + count);
+        }
+        int start = offset(channel, firstEvent);
+        int end = offset(channel, firstEvent + count);
+        if (start == end) {
+            return 0;
+        }
+        ByteBuffer buf = data.duplicate();
+        buf.limit(end);
+        buf.position(start);
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+        return end - start;
+    }
+
+    /**
+     * count the payloads in a run of events from one channel
+     * @param channel TRIGGER_CHANNEL, or 1 + hub number
+     * @param firstEvent first event
+     * @param count number of events
+     * @return number of payloads
+     */
+    public int countPayloads(int channel, int firstEvent, int count) {
+        if (firstEvent < 0 || count < 0 || firstEvent + count > numEvents) {
+            throw new IndexOutOfBoundsException("Bad event range " + firstEvent + "+" + count);
+        }
+        int pos = offset(channel, firstEvent);
+        int end = offset(channel, firstEvent + count);
+        int num = 0;
+        while (pos < end) {
+            pos += data.getInt(pos);
+            num++;
+        }
+        return num;
+    }
+
+    /**
+     * shift every payload forward by one pass, ready to be replayed again
+     */
+    public void advanceLoop() {
+        for (int c = 0; c < numChannels; c++) {
+            int pos = offset(c, 0);
+            int end = offset(c, numEvents);
+            while (pos < end) {
+                int len = data.getInt(pos);
+                data.putLong(pos + TIME_OFFSET, data.getLong(pos + TIME_OFFSET) + timeSpan);
+                if (c == TRIGGER_CHANNEL) {
+                    data.putInt(pos + UID_OFFSET, data.getInt(pos + UID_OFFSET) + uidSpan);
+                    data.putLong(pos + FIRST_TIME_OFFSET,
+                                 data.getLong(pos + FIRST_TIME_OFFSET) + timeSpan);
+                    data.putLong(pos + LAST_TIME_OFFSET,
+                                 data.getLong(pos + LAST_TIME_OFFSET) + timeSpan);
+                }
+                pos += len;
+            }
+        }
+        loops++;
+    }
+
+    private int offset(int channel, int event) {
+        return data.getInt(indexPosition(channel, numEvents) + event * BufferUtil.INT_SIZE);
+    }
+
+    private static int indexPosition(int channel, int numEvents) {
+        return HEADER_BLEN + channel * (numEvents + 1) * BufferUtil.INT_SIZE;
+    }
+
+    // trim a generator's buffer to the payload it holds
+    private static ByteBuffer payload(ByteBuffer buf) throws IOException {
+        buf.clear();
+        int len = buf.getInt(0);
+        if (len < BufferUtil.INT_SIZE || len > buf.capacity()) {
+            throw new IOException("Bad payload length " + len);
+        }
+        buf.limit(len);
+        buf.position(0);
+        return buf;
+    }
+
+    // append a payload, doubling the buffer when it is full
+    private static ByteBuffer append(ByteBuffer chan, ByteBuffer buf) {
+        if (buf.remaining() > chan.remaining()) {
+            ByteBuffer bigger = ByteBuffer.allocateDirect(
+                Math.max(chan.capacity() * 2, chan.position() + buf.remaining()));
+            chan.flip();
+            bigger.put(chan);
+            chan = bigger;
+        }
+        chan.put(buf);
+        return chan;
+    }
+}
@@ -14,23 +14,46 @@ import icecube.daq.sim.ISource;
 import icecube.daq.sim.RandomTriggerRequest;
 import icecube.daq.sim.TriggerRequestGenerator;
 
+import java.io.File;
 import java.io.IOException;
 
 import java.nio.ByteBuffer;
 
 import java.nio.channels.Pipe;
 import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
  * Generate input sources for event builder.
+ * <p>
+ * By default the generator thread writes each trigger request and hit
+ * itself.  With <tt>setParallelHubs(true)</tt> it only generates them,
+ * handing the trigger requests and each hub's hits to writer threads
+ * through bounded queues, so encoding and writing run on as many cores
+ * as there are hubs and a slow reader on one channel does not hold up
+ * the others until its queue fills.  Each channel still receives its
+ * payloads in the same order.
+ * <p>
+ * With <tt>setCorpusSize(n)</tt> the first <tt>n</tt> events are
+ * generated once into an {@link EventCorpus} (cached in the corpus
+ * directory, if one is set and the generator was given a seed, under a
+ * name derived from the seed and configuration) and then replayed in a
+ * loop for the rest of the run.
  */
 public class EventInputSourceGenerator
-    implements InputSource
+    implements InputSource, BatchGenerator
 {
     private static final String HIT_DATA_PAYLOAD = "HitDataPayload";
     private static final String HIT_PAYLOAD = "HitPayload";
@@ -38,6 +61,15 @@ public class EventInputSourceGenerator
     private static final int SRCTYPE_HIT = 1;
     private static final int SRCTYPE_TRIGREQ = 2;
 
+    /** Default number of triggers queued for each writer thread */
+    public static final int DEFAULT_HUB_QUEUE_DEPTH = 256;
+
+    /** Queue entry which tells a writer thread to send its stop signal */
+    private static final Object STOP_MARKER = new Object();
+
+    /** Number of corpus events replayed per channel write */
+    private static final int CORPUS_BLOCK_EVENTS = 64;
+
     private static final Log log =
         LogFactory.getLog(EventInputSourceGenerator.class);
 
@@ -51,6 +83,8 @@ public class EventInputSourceGenerator
     private boolean hasRun;
     private int minutes;
     private long seed;
+    /** only a seeded generator's events can be cached */
+    private boolean seeded;
     private long totalGenerated;
 
     private double rate = 0.0000001;
@@ -72,6 +106,33 @@ public class EventInputSourceGenerator
     /** time of previous payload */
     private long prevPayloadTime;
 
+    private long numGenerated;
+    private long stopTime;
+    private SimulationClock clock = new SimulationClock();
+
+    private boolean parallelHubs;
+    private int hubQueueDepth = DEFAULT_HUB_QUEUE_DEPTH;
+    private PayloadWriter trigReqWriter;
+    private PayloadWriter[] hitWriters;
+    private volatile Exception writerError;
+
+    /** where payloads are written: the sinks, or their non-blocking wrappers */
+    private WritableByteChannel trigReqOut;
+    private WritableByteChannel[] hitOut;
+    private boolean nonBlocking;
+    private NonBlockingSink[] nonBlockingSinks;
+    private boolean blocked;
+    private boolean stopQueued;
+
+    private int corpusSize;
+    private File corpusDir;
+    private EventCorpus corpus;
+    private int corpusNext;
+    private String targetIds = "";
+
+    private PayloadMetrics metrics;
+    private LatencyTracer tracer;
+
     public EventInputSourceGenerator()
         throws IOException
     {
@@ -88,6 +149,8 @@ public class EventInputSourceGenerator
         throws IOException
     {
         this(new RandomTriggerRequest(randomSeed), maxHitsPerTrigger); 
+        seed = randomSeed;
+        seeded = true;
     }
 
     private EventInputSourceGenerator(RandomTriggerRequest trigReqSrc,
@@ -105,7 +168,7 @@ public class EventInputSourceGenerator
         hitSrcChan = new Pipe.SourceChannel[hitSrcs.length];
         hitSinkChan = new Pipe.SinkChannel[hitSrcs.length];
         for (int i = 0; i < hitSrcs.length; i++) {
-            Pipe hitPipe = Pipe.open();
+            Pipe hitPipe = PipeFactory.open();
             hitSinkChan[i] = hitPipe.sink();
             hitSinkChan[i].configureBlocking(true);
 
@@ -113,18 +176,22 @@ public class EventInputSourceGenerator
             hitSrcChan[i].configureBlocking(false);
         }
 
-        Pipe trPipe = Pipe.open();
+        Pipe trPipe = PipeFactory.open();
         trigReqSinkChan = trPipe.sink();
         trigReqSrcChan = trPipe.source();
         trigReqSinkChan.configureBlocking(true);
         trigReqSrcChan.configureBlocking(false);
 
+        trigReqOut = trigReqSinkChan;
+        hitOut = hitSinkChan;
+
         if (log.isInfoEnabled()) {
             log.info("Created " + toString());
         }
     }
 
     private void generatePayload()
+        throws IOException
     {
         GenericTriggerRequest trigReq =
             (GenericTriggerRequest) trigReqSrc.nextPayload();
@@ -139,8 +206,30 @@ public class EventInputSourceGenerator
             } catch (IOException ioe) {
                 log.error("Stop signal failed", ioe);
             }
+        } else if (trigReqWriter != null) {
+            trigReqWriter.put(trigReq);
+            advanceClock(trigReq.getTimeStamp());
+
+            // hand each hub's hits to its writer in a single queue entry
+
+            for (int i = 0; i < hitSrcs.length; i++) {
+                List hits = new ArrayList();
+                while (true) {
+                    GenericHit hit = (GenericHit) hitSrcs[i].nextPayload();
+                    if (hit == null) {
+                        break;
+                    }
+
+                    hits.add(hit);
+                }
+
+                if (hitWriters != null && hits.size() > 0) {
+                    hitWriters[i].put(hits);
+                }
+            }
         } else {
             sendTriggerRequestPayload(trigReq);
+            advanceClock(trigReq.getTimeStamp());
 
             // return a series of hits equally spaced across
             // the trigger request time window
@@ -153,7 +242,7 @@ public class EventInputSourceGenerator
                     }
 
                     if (writeHits) {
-                        sendHitPayload(hit, hitSinkChan[i]);
+                        sendHitPayload(hit, hitOut[i]);
                     }
                 }
             }
@@ -162,6 +251,26 @@ public class EventInputSourceGenerator
         totalGenerated++;
     }
 
+    /**
+     * Move a simulated clock forward by the DAQ time since the previous
+     * trigger request, or by the nominal hit spacing if the trigger
+     * times do not increase.
+     *
+     * @param payloadTime trigger request time in 0.1 ns ticks
+     */
+    private void advanceClock(long payloadTime)
+    {
+        if (clock.isSimulated()) {
+            long delta = payloadTime - prevPayloadTime;
+            if (prevPayloadTime != 0L && delta > 0L) {
+                clock.advance((double) delta);
+            } else {
+                clock.advance(SimulationClock.ticksPerHit(rate, numDoms));
+            }
+        }
+        prevPayloadTime = payloadTime;
+    }
+
     /**
      * Return an array of hit sources.
      *
@@ -177,6 +286,36 @@ public class EventInputSourceGenerator
         return srcs;
     }
 
+    /**
+     * Get the directory where event corpora are cached.
+     *
+     * @return corpus directory, or <tt>null</tt> if corpora are not saved
+     */
+    public File getCorpusDirectory()
+    {
+        return corpusDir;
+    }
+
+    /**
+     * Get the number of events generated once and then replayed.
+     *
+     * @return corpus size (0 if every event is generated)
+     */
+    public int getCorpusSize()
+    {
+        return corpusSize;
+    }
+
+    /**
+     * Get the number of triggers queued for each writer thread.
+     *
+     * @return queue depth
+     */
+    public int getHubQueueDepth()
+    {
+        return hubQueueDepth;
+    }
+
     /**
      * Get the maximum number of hits returned for a single trigger.
      *
@@ -217,6 +356,16 @@ public class EventInputSourceGenerator
         return hitPayloadType;
     }
 
+    /**
+     * Get the clock used for the process duration.
+     *
+     * @return clock
+     */
+    public SimulationClock getClock()
+    {
+        return clock;
+    }
+
     /**
      * Get the duration of the process in minutes.
      *
@@ -282,19 +431,247 @@ public class EventInputSourceGenerator
      * Initialize hit generator based on hitPayloadType.
      */
     private void initHitGenerator()
+    {
+        hitGen = createHitGenerator();
+    }
+
+    private IGenerator createHitGenerator()
     {
         if (hitPayloadType == null) {
             throw new Error("Hit payload has not been specified");
         } else if (hitPayloadType.equals(HIT_PAYLOAD)) {
-            hitGen = new HitGenerator();
+            return new HitGenerator();
         } else if (hitPayloadType.equals(HIT_DATA_PAYLOAD)) {
-            hitGen = new HitDataGenerator();
+            return new HitDataGenerator();
         } else {
             throw new Error("Unknown hit payload type '" + hitPayloadType +
                             "'");
         }
     }
 
+    /**
+     * Start a writer thread for the trigger requests and, if hits are
+     * written, one for each hub.  Each writer gets its own payload
+     * generator since the generators reuse their buffers.
+     */
+    private void startWriters()
+    {
+        writerError = null;
+
+        trigReqWriter = new PayloadWriter(SRCTYPE_TRIGREQ,
+                                          new TriggerRequestGenerator(),
+                                          trigReqSinkChan,
+                                          "EventTrigReqWriter");
+        trigReqWriter.start();
+
+        if (writeHits) {
+            hitWriters = new PayloadWriter[hitSinkChan.length];
+            for (int i = 0; i < hitSinkChan.length; i++) {
+                hitWriters[i] = new PayloadWriter(SRCTYPE_HIT,
+                                                  createHitGenerator(),
+                                                  hitSinkChan[i],
+                                                  "EventHitWriter-" + i);
+                hitWriters[i].start();
+            }
+        }
+    }
+
+    /**
+     * Name the cached corpus after everything which changes its contents.
+     *
+     * @return corpus file name
+     */
+    private String getCorpusName()
+    {
+        String key = "seed=" + seed + ";hubs=" + hitSrcs.length +
+            ";maxHits=" + maxHitsPerTrigger + ";type=" + hitPayloadType +
+            ";events=" + corpusSize + ";writeHits=" + writeHits +
+            ";targets=" + targetIds;
+
+        CRC32 crc = new CRC32();
+        crc.update(key.getBytes());
+        return "evtcorpus-" + seed + "-" + Long.toHexString(crc.getValue()) +
+            ".dat";
+    }
+
+    /**
+     * Load the cached corpus for this configuration, or generate it
+     * (and cache it if there is a corpus directory).  Unseeded
+     * generators make different events on every run, so their corpus
+     * is never cached.
+     *
+     * @return corpus
+     *
+     * @throws IOException if the corpus cannot be generated or saved
+     */
+    private EventCorpus openCorpus()
+        throws IOException
+    {
+        File file = null;
+        if (corpusDir != null && !seeded) {
+            if (log.isInfoEnabled()) {
+                log.info("Not caching event corpus for unseeded generator");
+            }
+        } else if (corpusDir != null) {
+            file = new File(corpusDir, getCorpusName());
+            if (file.exists()) {
+                try {
+                    EventCorpus cached = EventCorpus.load(file);
+                    if (cached.getNumChannels() == hitSinkChan.length + 1) {
+                        if (log.isInfoEnabled()) {
+                            log.info("Replaying event corpus " + file);
+                        }
+                        return cached;
+                    }
+                    log.warn("Event corpus " + file +
+                             " does not match this configuration");
+                } catch (IOException ioe) {
+                    log.warn("Cannot load event corpus " + file, ioe);
+                }
+            }
+        }
+
+        EventCorpus newCorpus =
+            EventCorpus.generate(trigReqSrc, hitGen, corpusSize, writeHits);
+        if (file != null) {
+            newCorpus.save(file);
+            if (log.isInfoEnabled()) {
+                log.info("Saved event corpus " + file);
+            }
+        }
+        return newCorpus;
+    }
+
+    /**
+     * Replay up to <tt>maxPayloads</tt> events from the corpus,
+     * one block of events per channel write.
+     *
+     * @param maxPayloads maximum number of events to replay
+     *
+     * @return <tt>true</tt> if there are more events to replay
+     *
+     * @throws IOException
+     */
+    private boolean replayBatch(int maxPayloads)
+        throws IOException
+    {
+        int n = 0;
+        while (n < maxPayloads) {
+            boolean more;
+            if (minutes <= 0) {
+                more = numGenerated < maxGenerated;
+            } else {
+                more = clock.currentTimeMillis() < stopTime;
+            }
+
+            if (!isRunning || !more) {
+                return finish();
+            }
+
+            int count = Math.min(CORPUS_BLOCK_EVENTS, maxPayloads - n);
+            count = Math.min(count, corpus.getNumEvents() - corpusNext);
+            if (minutes <= 0) {
+                count = (int) Math.min((long) count,
+                                       maxGenerated - numGenerated);
+            }
+
+            long start = (metrics == null ? 0L : System.nanoTime());
+            long bytes = corpus.write(EventCorpus.TRIGGER_CHANNEL, corpusNext,
+                                      count, trigReqOut);
+            long payloads = count;
+            if (writeHits) {
+                for (int i = 0; i < hitSinkChan.length; i++) {
+                    bytes += corpus.write(i + 1, corpusNext, count,
+                                          hitOut[i]);
+                    if (metrics != null) {
+                        payloads += corpus.countPayloads(i + 1, corpusNext,
+                                                         count);
+                    }
+                }
+            }
+            if (metrics != null) {
+                long nanos = System.nanoTime() - start;
+                metrics.recordLatency(nanos);
+                metrics.addBlocked(nanos);
+                metrics.addPayloads(payloads, bytes);
+            }
+
+            if (clock.isSimulated()) {
+                clock.advance((double) corpus.getTimeSpan() * count /
+                              corpus.getNumEvents());
+            }
+
+            corpusNext += count;
+            if (corpusNext == corpus.getNumEvents()) {
+                corpus.advanceLoop();
+                corpusNext = 0;
+            }
+
+            numGenerated += count;
+            totalGenerated += count;
+            n += count;
+
+            if (hasBacklog()) {
+                blocked = true;
+                return true;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Queue a stop signal behind everything already handed to the
+     * writer threads and wait for them to write it.
+     *
+     * @throws IOException if a writer failed
+     */
+    private void stopWriters()
+        throws IOException
+    {
+        PayloadWriter[] writers = hitWriters;
+        hitWriters = null;
+
+        PayloadWriter trWriter = trigReqWriter;
+        trigReqWriter = null;
+
+        List all = new ArrayList();
+        all.add(trWriter);
+        if (writers != null) {
+            for (int i = 0; i < writers.length; i++) {
+                all.add(writers[i]);
+            }
+        }
+
+        // a dead writer must not keep the others from being stopped
+        IOException putError = null;
+        for (int i = 0; i < all.size(); i++) {
+            try {
+                ((PayloadWriter) all.get(i)).put(STOP_MARKER);
+            } catch (IOException ioe) {
+                if (putError == null) {
+                    putError = ioe;
+                }
+            }
+        }
+
+        try {
+            for (int i = 0; i < all.size(); i++) {
+                ((PayloadWriter) all.get(i)).join();
+            }
+        } catch (InterruptedException ie) {
+            throw new IOException("Interrupted while stopping writers");
+        }
+
+        if (putError != null) {
+            throw putError;
+        } else if (writerError != null) {
+            IOException ioe = new IOException("Payload writer failed");
+            ioe.initCause(writerError);
+            throw ioe;
+        }
+    }
+
     /**
      * Is the input source running?
      *
@@ -305,6 +682,16 @@ public class EventInputSourceGenerator
         return isRunning;
     }
 
+    /**
+     * Are trigger requests and hits written by per-channel threads?
+     *
+     * @return <tt>true</tt> if writing is done in parallel
+     */
+    public boolean isParallelHubs()
+    {
+        return parallelHubs;
+    }
+
     public void reset()
     {
         if (!isRunning) {
@@ -314,7 +701,7 @@ public class EventInputSourceGenerator
         }
     }
 
-    private void sendHitPayload(GenericHit hit, Pipe.SinkChannel sinkChan)
+    private void sendHitPayload(GenericHit hit, WritableByteChannel sinkChan)
     {
         try {
             sendPayload(hitGen.generatePayload(hit), sinkChan);
@@ -328,7 +715,7 @@ public class EventInputSourceGenerator
         }
     }
 
-    private void sendPayload(ByteBuffer buf, Pipe.SinkChannel sinkChan)
+    private void sendPayload(ByteBuffer buf, WritableByteChannel sinkChan)
         throws IOException
     {
         buf.clear();
@@ -340,7 +727,18 @@ public class EventInputSourceGenerator
             throw new IOException("Bad payload length " + len);
         }
 
+        if (tracer != null) {
+            tracer.sent(sourceId, buf);
+        }
+
+        long start = (metrics == null ? 0L : System.nanoTime());
         int result = sinkChan.write(buf);
+        if (metrics != null) {
+            long nanos = System.nanoTime() - start;
+            metrics.recordLatency(nanos);
+            metrics.addBlocked(nanos);
+            metrics.addPayloads(1, len);
+        }
         if (result != len) {
             throw new IOException("SinkChannel write failed, expected " +
                                   len + " bytes, but wrote " + result);
@@ -350,7 +748,7 @@ public class EventInputSourceGenerator
     private void sendTriggerRequestPayload(GenericTriggerRequest trigReq)
     {
         try {
-            sendPayload(trigReqGen.generatePayload(trigReq), trigReqSinkChan);
+            sendPayload(trigReqGen.generatePayload(trigReq), trigReqOut);
         } catch (IOException ioe) {
             throw new RuntimeException("While sending trigger request: ", ioe);
         }
@@ -365,6 +763,20 @@ public class EventInputSourceGenerator
     public void sendStopSignal()
         throws IOException
     {
+        if (trigReqWriter != null) {
+            try {
+                stopWriters();
+            } finally {
+                isRunning = false;
+                stopQueued = true;
+            }
+
+            if (log.isInfoEnabled()) {
+                log.info(toString() + " --- STOPPED");
+            }
+            return;
+        }
+
         final int doneLen = 4;
 
         ByteBuffer buf = ByteBuffer.allocate(doneLen);
@@ -373,14 +785,15 @@ public class EventInputSourceGenerator
         buf.putInt(0, doneLen);
 
         buf.position(0);
-        trigReqSinkChan.write(buf);
+        trigReqOut.write(buf);
 
         if (writeHits) {
-            for (int i = 0; i < hitSinkChan.length; i++) {
+            for (int i = 0; i < hitOut.length; i++) {
                 buf.position(0);
-                hitSinkChan[i].write(buf);
+                hitOut[i].write(buf);
             }
         }
+        stopQueued = true;
 
         if (log.isInfoEnabled()) {
             log.info(toString() + " --- STOPPED");
@@ -389,6 +802,74 @@ public class EventInputSourceGenerator
         isRunning = false;
     }
 
+    /**
+     * Set the directory where event corpora are cached between runs.
+     *
+     * @param dir corpus directory, or <tt>null</tt> to keep the corpus
+     *            in memory only
+     */
+    public void setCorpusDirectory(String dir)
+    {
+        if (isRunning) {
+            if (log.isWarnEnabled()) {
+                log.warn("cannot change the corpus directory" +
+                         " while generator is running");
+            }
+        } else if (dir == null) {
+            corpusDir = null;
+        } else {
+            File newDir = new File(dir);
+            if (!newDir.isDirectory()) {
+                throw new IllegalArgumentException("Corpus directory \"" +
+                                                   dir +
+                                                   "\" does not exist");
+            }
+            corpusDir = newDir;
+        }
+    }
+
+    /**
+     * Generate this many events once and replay them for the rest of
+     * the run, rewriting their times and UIDs on each pass.
+     *
+     * @param numEvents corpus size (0 to generate every event)
+     */
+    public void setCorpusSize(int numEvents)
+    {
+        if (numEvents < 0) {
+            throw new IllegalArgumentException("Bad corpus size " +
+                                               numEvents);
+        }
+
+        if (!isRunning) {
+            corpusSize = numEvents;
+        } else if (log.isWarnEnabled()) {
+            log.warn("cannot change the corpus size" +
+                     " while generator is running");
+        }
+    }
+
+    /**
+     * Set the number of triggers which may be queued for each writer
+     * thread before the generator waits for it.
+     *
+     * @param depth queue depth
+     */
+    public void setHubQueueDepth(int depth)
+    {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Queue depth must be" +
+                                               " at least 1");
+        }
+
+        if (!isRunning) {
+            hubQueueDepth = depth;
+        } else if (log.isWarnEnabled()) {
+            log.warn("cannot change the queue depth" +
+                     " while generator is running");
+        }
+    }
+
     /**
      * Set the maximum number of hits returned for a single trigger.
      *
@@ -429,6 +910,22 @@ public class EventInputSourceGenerator
         }
     }
 
+    /**
+     * Should trigger requests and each hub's hits be written by
+     * their own threads?
+     *
+     * @param val <tt>true</tt> to write in parallel
+     */
+    public void setParallelHubs(boolean val)
+    {
+        if (!isRunning) {
+            parallelHubs = val;
+        } else if (log.isWarnEnabled()) {
+            log.warn("cannot change parallel writing" +
+                     " while generator is running");
+        }
+    }
+
     /**
      * Set the payload type
      *
@@ -452,6 +949,24 @@ public class EventInputSourceGenerator
         }
     }
 
+    /**
+     * Set the clock used for the process duration.
+     *
+     * @param clock wall, simulated or scaled clock
+     */
+    public void setClock(SimulationClock clock)
+    {
+        if (clock == null) {
+            throw new IllegalArgumentException("Clock cannot be null");
+        }
+
+        if (!isRunning) {
+            this.clock = clock;
+        } else if (log.isWarnEnabled()) {
+            log.warn("cannot change the clock while generator is running");
+        }
+    }
+
     /**
      * Set the duration of the process in minutes.
      *
@@ -505,6 +1020,7 @@ public class EventInputSourceGenerator
     public void setTargetSourceIds(int[] srcIds)
     {
         trigReqSrc.setTargetSourceIds(srcIds);
+        targetIds = Arrays.toString(srcIds);
     }
 
     /**
@@ -515,6 +1031,7 @@ public class EventInputSourceGenerator
     public void setTargetSourceIds(Collection srcIds)
     {
         trigReqSrc.setTargetSourceIds(srcIds);
+        targetIds = String.valueOf(srcIds);
     }
 
     /**
@@ -550,25 +1067,214 @@ public class EventInputSourceGenerator
      */
     public synchronized void startProcessing()
         throws IOException
+    {
+        if (prepareProcessing()) {
+            Thread thread = new Thread(new InputGenerator());
+            thread.setName("EventInputSourceGenerator");
+            thread.start();
+        }
+    }
+
+    /**
+     * Get ready to generate without starting a thread.
+     *
+     * @return <tt>false</tt> if the generator is running or has already run
+     *
+     * @throws IOException
+     */
+    public synchronized boolean prepareProcessing()
+        throws IOException
     {
         if (!trigReqSrc.isInitialized()) {
             throw new IllegalArgumentException("List of target SourceIDs" +
                                                " has not been specified");
         }
 
-        if (!isRunning && !hasRun) {
-            initHitGenerator();
+        if (isRunning || hasRun) {
+            return false;
+        }
 
-            isRunning = true;
-            if (log.isInfoEnabled()) {
-                log.info("starting " + toString());
+        initHitGenerator();
+        if (metrics == null) {
+            metrics = MetricsRegistry.register(MetricsRegistry.INPUT_SOURCE,
+                                               "EventInputSourceGenerator",
+                                               sourceId);
+        }
+
+        tracer = LatencyTracer.getTracer();
+
+        trigReqOut = trigReqSinkChan;
+        hitOut = hitSinkChan;
+        nonBlockingSinks = null;
+        if (nonBlocking) {
+            nonBlockingSinks = new NonBlockingSink[hitSinkChan.length + 1];
+            nonBlockingSinks[0] = new NonBlockingSink(trigReqSinkChan);
+            trigReqOut = nonBlockingSinks[0];
+            hitOut = new WritableByteChannel[hitSinkChan.length];
+            for (int i = 0; i < hitSinkChan.length; i++) {
+                nonBlockingSinks[i + 1] = new NonBlockingSink(hitSinkChan[i]);
+                hitOut[i] = nonBlockingSinks[i + 1];
+            }
+        }
+        blocked = false;
+        stopQueued = false;
+
+        corpus = null;
+        if (corpusSize > 0) {
+            corpus = openCorpus();
+            corpusNext = 0;
+            // a corpus is replayed a block at a time on this thread
+            if (parallelHubs && log.isWarnEnabled()) {
+                log.warn("Ignoring parallel hubs while replaying an event corpus");
+            }
+        } else if (parallelHubs && nonBlocking) {
+            // the writer threads would block the slice on their queues
+            if (log.isWarnEnabled()) {
+                log.warn("Ignoring parallel hubs for a non-blocking generator");
             }
+        } else if (parallelHubs) {
+            startWriters();
+        }
 
-            Thread thread = new Thread(new InputGenerator());
-            thread.setName("EventInputSourceGenerator");
-            thread.start();
+        isRunning = true;
+        if (log.isInfoEnabled()) {
+            log.info("starting " + toString());
+        }
 
-            hasRun = true;
+        numGenerated = 0;
+        prevPayloadTime = 0L;
+        if (minutes <= 0) {
+            log.info("Will generate " + maxGenerated +
+                     " triggers from " + numDoms +
+                     " DOMs, with hits at a rate of " + rate +
+                     " per tenth of nanosecond per DOM");
+        } else {
+            log.info("Will generate " + minutes +
+                     " minutes of triggers from " + numDoms +
+                     " DOMs, with hits at a rate of " + rate +
+                     " per tenth of nanosecond per DOM on the " + clock);
+            stopTime = clock.currentTimeMillis() + (long) (minutes * 60000);
+        }
+
+        hasRun = true;
+        return true;
+    }
+
+    /**
+     * Generate up to <tt>maxPayloads</tt> triggers (each with its hits),
+     * sending the stop signal once the generator is finished.
+     *
+     * @param maxPayloads maximum number of triggers to generate
+     *
+     * @return <tt>true</tt> if there are more triggers to generate
+     *
+     * @throws IOException
+     */
+    public boolean generateBatch(int maxPayloads)
+        throws IOException
+    {
+        blocked = false;
+        if (nonBlockingSinks != null) {
+            for (int i = 0; i < nonBlockingSinks.length; i++) {
+                if (!nonBlockingSinks[i].drain()) {
+                    blocked = true;
+                }
+            }
+            if (blocked) {
+                return true;
+            }
+            if (stopQueued) {
+                // the stop signals have now gone out
+                return false;
+            }
+        }
+
+        if (corpus != null) {
+            return replayBatch(maxPayloads);
+        }
+
+        for (int n = 0; n < maxPayloads; n++) {
+            boolean more;
+            if (minutes <= 0) {
+                more = numGenerated < maxGenerated;
+            } else {
+                more = clock.currentTimeMillis() < stopTime;
+            }
+
+            if (!isRunning || !more) {
+                return finish();
+            }
+
+            generatePayload();
+            numGenerated++;
+
+            if (hasBacklog()) {
+                blocked = true;
+                return true;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Send the stop signal if it has not gone out already.
+     *
+     * @return <tt>true</tt> if it is still queued behind a full pipe
+     *
+     * @throws IOException
+     */
+    private boolean finish()
+        throws IOException
+    {
+        if (!stopQueued) {
+            sendStopSignal();
+        }
+        blocked = hasBacklog();
+        return blocked;
+    }
+
+    /**
+     * Is data waiting for a full non-blocking sink?
+     *
+     * @return <tt>true</tt> if any sink has a backlog
+     */
+    private boolean hasBacklog()
+    {
+        if (nonBlockingSinks == null) {
+            return false;
+        }
+        for (int i = 0; i < nonBlockingSinks.length; i++) {
+            if (nonBlockingSinks[i].hasBacklog()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Did the last slice end early because a sink was full?
+     *
+     * @return <tt>true</tt> if the generator is waiting for a consumer
+     */
+    public boolean isBlocked()
+    {
+        return blocked;
+    }
+
+    /**
+     * Write through non-blocking sinks, so a slice ends early when a
+     * consumer falls behind.
+     *
+     * @param val <tt>true</tt> for non-blocking sinks
+     */
+    public void setNonBlocking(boolean val)
+    {
+        if (!isRunning) {
+            nonBlocking = val;
+        } else if (log.isWarnEnabled()) {
+            log.warn("cannot change non-blocking writing" +
+                     " while generator is running");
         }
     }
 
@@ -609,50 +1315,105 @@ public class EventInputSourceGenerator
         {
         }
 
-        private void countLoop()
+        public void run()
         {
-            log.info("Will generate " + maxGenerated +
-                     " triggers from " + numDoms +
-                     " DOMs, with hits at a rate of " + rate +
-                     " per tenth of nanosecond per DOM");
-
-            long numGenerated = 0;
-            while (isRunning && (numGenerated < maxGenerated)) {
-                generatePayload();
-                numGenerated++;
+            try {
+                while (generateBatch(Integer.MAX_VALUE)) {
+                    // keep going until the generator is finished
+                }
+            } catch (IOException ioe) {
+                throw new RuntimeException(ioe);
             }
         }
+    }
 
-        private void timedLoop()
+    /**
+     * Encodes and writes the payloads queued for one output channel.
+     */
+    class PayloadWriter
+        implements Runnable
+    {
+        private int srcType;
+        private IGenerator payloadGen;
+        private Pipe.SinkChannel sinkChan;
+        private BlockingQueue queue;
+        private Thread thread;
+
+        PayloadWriter(int srcType, IGenerator payloadGen,
+                      Pipe.SinkChannel sinkChan, String name)
         {
-            log.info("Will generate " + minutes +
-                     " minutes of triggers from " + numDoms +
-                     " DOMs, with hits at a rate of " + rate +
-                     " per tenth of nanosecond per DOM");
+            this.srcType = srcType;
+            this.payloadGen = payloadGen;
+            this.sinkChan = sinkChan;
 
-            long currentTime = System.currentTimeMillis();
+            queue = new ArrayBlockingQueue(hubQueueDepth);
 
-            final long stopTime = System.currentTimeMillis() +
-                (long) (minutes * 60000);
-            while (isRunning && (System.currentTimeMillis() < stopTime)) {
-                generatePayload();
-            }
+            thread = new Thread(this);
+            thread.setName(name);
+            thread.setDaemon(true);
         }
 
-        public void run()
+        void join()
+            throws InterruptedException
         {
-            if (minutes <= 0) {
-                countLoop();
-            } else {
-                timedLoop();
+            thread.join();
+        }
+
+        /**
+         * Queue a trigger request, a list of hits, or the stop marker,
+         * waiting while the queue is full.
+         */
+        void put(Object entry)
+            throws IOException
+        {
+            try {
+                while (!queue.offer(entry, 100, TimeUnit.MILLISECONDS)) {
+                    if (!thread.isAlive()) {
+                        IOException ioe =
+                            new IOException(thread.getName() + " has died");
+                        ioe.initCause(writerError);
+                        throw ioe;
+                    }
+                }
+            } catch (InterruptedException ie) {
+                throw new IOException("Interrupted while queuing for " +
+                                      thread.getName());
             }
+        }
 
+        public void run()
+        {
             try {
-                sendStopSignal();
-            } catch (IOException ioe) {
-                throw new RuntimeException(ioe);
+                while (true) {
+                    Object entry = queue.take();
+                    if (entry == STOP_MARKER) {
+                        ByteBuffer buf = ByteBuffer.allocate(4);
+                        buf.putInt(0, 4);
+                        sinkChan.write(buf);
+                        break;
+                    }
+
+                    if (srcType == SRCTYPE_TRIGREQ) {
+                        sendPayload(payloadGen.generatePayload(entry),
+                                    sinkChan);
+                    } else {
+                        List hits = (List) entry;
+                        for (int i = 0; i < hits.size(); i++) {
+                            sendPayload(payloadGen.generatePayload(hits.get(i)),
+                                        sinkChan);
+                        }
+                    }
+                }
+            } catch (Exception ex) {
+                log.error(thread.getName() + " failed", ex);
+                writerError = ex;
             }
         }
+
+        void start()
+        {
+            thread.start();
+        }
     }
 
     class EventInputChannelSource
@@ -692,6 +1453,16 @@ public class EventInputSourceGenerator
 
         public boolean isRunning() { return evtSrc.isRunning(); }
 
+        /**
+         * Return the generator which feeds this channel.
+         *
+         * @return event generator
+         */
+        EventInputSourceGenerator getGenerator()
+        {
+            return evtSrc;
+        }
+
         public void setNumDoms(int xxx)
         {
             throw new RuntimeException("Please use " +
@@ -6,14 +6,13 @@
  */
 package icecube.daq.testUtil;
 
-import icecube.daq.payload.PayloadReader;
-
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.Pipe;
 import java.nio.ByteBuffer;
 import java.io.IOException;
 import java.io.File;
-import java.io.EOFException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -31,7 +30,12 @@ public class FileInputSource implements InputSource {
     private double rate = 0.0;
     private int numDoms = 0;
     private boolean done = false;
-    private PayloadReader payloadReader;
+    private String sourceFileName;
+    private PayloadIterator payloadReader;
+    /** file offset where replay stops, or -1 to read to the end */
+    private long endOffset = -1;
+    private PayloadMetrics metrics;
+    private boolean metricsRegistered = false;
 
     private final int DONE_SIGNAL = 4;
 
@@ -42,9 +46,9 @@ public class FileInputSource implements InputSource {
         if (!(new File(sourceFileName).exists())){
             throw new IllegalArgumentException(sourceFileName + " does not exist.");
         }
-        payloadReader = new PayloadReader(sourceFileName);
-        payloadReader.open();
-        pipe = Pipe.open();
+        this.sourceFileName = sourceFileName;
+        payloadReader = PayloadReaders.open(sourceFileName);
+        pipe = PipeFactory.open();
         sinkChannel = pipe.sink();
         sourceChannel = pipe.source();
         sinkChannel.configureBlocking(true);
@@ -53,6 +57,39 @@ public class FileInputSource implements InputSource {
         this.sourceID = sourceID;
     }
 
+    /**
+     * only replay the payloads with <tt>firstTime &lt;= time &lt; lastTime</tt>,
+     * using the file's index (see PayloadFileIndex, or the block index of a
+     * compressed file) to jump straight to the first one.  Must be called
+     * before <tt>startProcessing()</tt>.
+     * @param firstTime start of the range
+     * @param lastTime end of the range (exclusive)
+     * @throws IOException if the file cannot be indexed
+     */
+    public void setTimeRange(long firstTime, long lastTime) throws IOException {
+        if (payloadReader instanceof CompressedPayloadReader){
+            ((CompressedPayloadReader) payloadReader).setTimeRange(firstTime, lastTime);
+            return;
+        }
+
+        MappedPayloadReader mappedReader = (MappedPayloadReader) payloadReader;
+        RandomAccessFile raf = new RandomAccessFile(sourceFileName, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            PayloadFileIndex index = PayloadFileIndex.open(sourceFileName, channel);
+            int[] range = index.findTimeRange(firstTime, lastTime);
+            long start = (range[0] < index.size() ? index.getOffset(range[0]) : channel.size());
+            endOffset = (range[1] < index.size() ? index.getOffset(range[1]) : channel.size());
+            mappedReader.seek(start);
+            if (log.isInfoEnabled()){
+                log.info("Channel " + sourceID + " replaying payloads " + range[0] + " to " +
+                         range[1] + " of " + index.size() + " from " + sourceFileName);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
     /**
      * return an array of SelectableChannel(s) generated by this object
      *
@@ -69,31 +106,33 @@ public class FileInputSource implements InputSource {
      */
     public void startProcessing() throws IOException{
 
-        ByteBuffer buf = ByteBuffer.allocate(BufferUtil.DEFAULT_BUFFER_BLEN);
-        int header = 0;
+        if (!metricsRegistered){
+            metrics = MetricsRegistry.register(MetricsRegistry.INPUT_SOURCE, "FileInputSource", sourceID);
+            metricsRegistered = true;
+        }
+
+        ByteBuffer buf;
         try {
-            payloadReader.readNextPayload(buf);
-            buf.clear();
-            header = buf.getInt(0);
-            buf.limit(header);
-        } catch (EOFException eofEx){
-            buf.clear();
-            buf.limit(DONE_SIGNAL);
+            buf = nextPayload();
+        } catch (IOException ioe){
+            throw new RuntimeException(ioe);
+        }
+        if (buf == null){
+            buf = ByteBuffer.allocate(DONE_SIGNAL);
             buf.putInt(0, DONE_SIGNAL);
-            done = true;
-            if (log.isInfoEnabled()){
-                log.info("END OF FILE from Channel " + sourceID);
-            }
-            try {
-                payloadReader.close();
-            } catch(IOException e){
-                throw new RuntimeException(e);
-            }
-        } catch (Exception e){
-            throw new RuntimeException(e);
         }
+        int header = buf.remaining();
         try {
+            long start = (metrics == null ? 0L : System.nanoTime());
             int nWrite = sinkChannel.write(buf);
+            if (metrics != null){
+                long nanos = System.nanoTime() - start;
+                metrics.recordLatency(nanos);
+                metrics.addBlocked(nanos);
+                if (!done){
+                    metrics.addPayloads(1, nWrite);
+                }
+            }
             if (nWrite != header) {
                 log.error("Payload is " + header + " bytes, but only wrote " + nWrite + " bytes!");
             }
@@ -102,6 +141,32 @@ public class FileInputSource implements InputSource {
         }
     }
 
+    /**
+     * get the next payload in the replay range straight from the file,
+     * without going through the pipe; used by MergingInputSource
+     * @return payload, or <tt>null</tt> (after closing the file) at the end
+     * @throws IOException if the file cannot be read
+     */
+    ByteBuffer nextPayload() throws IOException{
+        if (done){
+            return null;
+        }
+        ByteBuffer buf;
+        if (endOffset >= 0 && ((MappedPayloadReader) payloadReader).position() >= endOffset){
+            buf = null;
+        } else {
+            buf = payloadReader.nextPayload();
+        }
+        if (buf == null){
+            done = true;
+            if (log.isInfoEnabled()){
+                log.info("END OF FILE from Channel " + sourceID);
+            }
+            payloadReader.close();
+        }
+        return buf;
+    }
+
     /**
      * check to see if the input source is running
      * @return
@@ -64,43 +64,39 @@ public class FileInputSourceMng extends InputSourceGeneratorMng {
 
     class FileInputThread implements Runnable {
         public void run() {
-            int inputSourceIndex = 0;
             while (sources.size() > 0) {
-                try {
-                    InputSourceInfo inputSourceInfo = (InputSourceInfo)sources.get(inputSourceIndex);
+                boolean sent = false;
+                long nextDeadline = Long.MAX_VALUE;
+                for (int i = 0; i < sources.size(); ) {
+                    InputSourceInfo inputSourceInfo = (InputSourceInfo)sources.get(i);
                     InputSource inputSource = inputSourceInfo.getInputSource();
-                    if (log.isDebugEnabled()) {
-                        log.debug("Reading from FileInputSource ID = " + inputSource.getSourceID());
-                    }
+                    try {
+                        if (!inputSource.isRunning()) {
+                            sources.remove(i);
+                            continue;
+                        }
 
-                    if (!inputSource.isRunning()) {
-                        sources.remove(inputSourceInfo);
-                    } else {
-                        inputSource.startProcessing();
-                        if (inputSource.getNumDoms() > 0){
-                            if (!inputSourceInfo.hasInitialPacket()){
-                                inputSourceInfo.setInitialPacket(true);
-                            } else {
-                                if (inputSourceInfo.getDomCounter() == inputSource.getNumDoms()){
-                                    long sleep = (long)inputSource.getRate();
-                                    Thread.sleep(sleep);
-                                    inputSourceInfo.resetDomCounter();
-                                } else {
-                                    inputSourceInfo.increaseDomCounter();
-                                }
+                        PayloadPacer pacer = inputSourceInfo.getPacer();
+                        if (pacer == null || pacer.tryAcquire(1)) {
+                            if (log.isDebugEnabled()) {
+                                log.debug("Reading from FileInputSource ID = " + inputSource.getSourceID());
                             }
+                            inputSource.startProcessing();
+                            sent = true;
+                        } else {
+                            nextDeadline = Math.min(nextDeadline, pacer.nextAvailableNanos());
+                        }
+                    } catch (Exception e) {
+                        if (log.isErrorEnabled()) {
+                            log.error("Problem in FileInputSource: ", e);
                         }
                     }
+                    i++;
+                }
 
-                    if (inputSourceIndex < sources.size() - 1) {
-                        ++inputSourceIndex;
-                    } else {
-                        inputSourceIndex = 0;
-                    }
-                } catch (Exception e) {
-                    if (log.isErrorEnabled()) {
-                        log.error("Problem in FileInputSource: ", e);
-                    }
+                // every source is waiting for its pacer, so sleep until the first is due
+                if (!sent && nextDeadline != Long.MAX_VALUE) {
+                    PayloadPacer.waitUntil(nextDeadline);
                 }
             }
             if (log.isInfoEnabled()) {
@@ -112,35 +108,24 @@ public class FileInputSourceMng extends InputSourceGeneratorMng {
     class InputSourceInfo {
 
         private InputSource inputSource;
-        private int domCounter = 0;
-        private boolean initialPacket = false;
+        private PayloadPacer pacer;
 
         public InputSourceInfo(InputSource inputSource){
             this.inputSource = inputSource;
+            // numDoms payloads every 'rate' milliseconds
+            pacer = PayloadPacer.fromRateAndNumDoms(inputSource.getRate(), inputSource.getNumDoms());
+            if (pacer != null && log.isInfoEnabled()) {
+                log.info("Pacing FileInputSource ID = " + inputSource.getSourceID() +
+                         " at " + pacer.getRate() + " payloads/sec");
+            }
         }
 
         public InputSource getInputSource(){
             return inputSource;
         }
 
-        public int getDomCounter(){
-            return domCounter;
-        }
-
-        public void increaseDomCounter(){
-            ++domCounter;
-        }
-
-        public void resetDomCounter(){
-            domCounter = 0;
-        }
-
-        public boolean hasInitialPacket(){
-            return initialPacket;
-        }
-
-        public void setInitialPacket(boolean initialPacket){
-            this.initialPacket = initialPacket;
+        public PayloadPacer getPacer(){
+            return pacer;
         }
     }
 }
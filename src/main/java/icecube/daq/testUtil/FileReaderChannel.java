@@ -6,15 +6,10 @@
  */
 package icecube.daq.testUtil;
 
-import icecube.daq.payload.PayloadReader;
-
 import java.nio.channels.*;
 import java.nio.ByteBuffer;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.File;
-import java.io.EOFException;
-import java.util.Observable;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -26,7 +21,8 @@ public class FileReaderChannel {
     private Pipe pipe;
     private int processID = 0;
     private boolean done = false;
-    private PayloadReader payloadReader;
+    private PayloadIterator payloadReader;
+    private ByteBuffer pending;
     private final int DONE_SIGNAL = 4;
     private Log log = LogFactory.getLog(FileReaderChannel.class);
 
@@ -35,9 +31,17 @@ public class FileReaderChannel {
         if (!(new File(sourceFileName).exists())){
             throw new IllegalArgumentException(sourceFileName + " does not exist.");
         }
-        payloadReader = new PayloadReader(sourceFileName);
-        payloadReader.open();
-        pipe = Pipe.open();
+        init(PayloadReaders.open(sourceFileName), processID);
+    }
+
+    // read a share of a larger file without copying it to a file of its own
+    public FileReaderChannel(PayloadIterator view, int processID) throws IOException {
+        init(view, processID);
+    }
+
+    private void init(PayloadIterator payloadReader, int processID) throws IOException {
+        this.payloadReader = payloadReader;
+        pipe = PipeFactory.open();
         sinkChannel = pipe.sink();
         sourceChannel = pipe.source();
         sinkChannel.configureBlocking(true);
@@ -50,21 +54,35 @@ public class FileReaderChannel {
         return sourceChannel;
     }
 
-    // read from the file channel to a ByteBuffer and write the byte buffer to the SinkChannel
-    void read(ByteBuffer buf) {
-        if (done){
-            return;
+    // write as much of the current payload as the SinkChannel will take
+    // without blocking, fetching the next payload if the last one is done.
+    // returns true once the whole payload has been written
+    boolean writeNext() throws IOException {
+        if (!hasPending()) {
+            if (done) {
+                return true;
+            }
+            pending = nextBuffer();
         }
-        buf.clear();
-        int header = 0;
+        sinkChannel.write(pending);
+        return !pending.hasRemaining();
+    }
+
+    // is part of a payload still waiting to be written?
+    boolean hasPending() {
+        return pending != null && pending.hasRemaining();
+    }
+
+    // get the next payload, or the stop signal at the end of the file
+    private ByteBuffer nextBuffer() {
+        ByteBuffer buf;
         try {
-            payloadReader.readNextPayload(buf);
-            buf.clear();
-            header = buf.getInt(0);
-            buf.limit(header);
-        } catch (EOFException eofEx){
-            buf.clear();
-            buf.limit(DONE_SIGNAL);
+            buf = payloadReader.nextPayload();
+        } catch (IOException ioe){
+            throw new RuntimeException(ioe);
+        }
+        if (buf == null){
+            buf = ByteBuffer.allocate(DONE_SIGNAL);
             buf.putInt(0, DONE_SIGNAL);
             done = true;
             if (log.isInfoEnabled()){
@@ -75,20 +93,16 @@ public class FileReaderChannel {
             } catch(IOException e){
                 throw new RuntimeException(e);
             }
-        } catch (Exception e){
-            throw new RuntimeException(e);
-        }
-        try {
-            //buf.clear();
-            int nWrite = sinkChannel.write(buf);
-            if (nWrite != header) {
-                log.error("Payload is " + header + " bytes, but only wrote " + nWrite + " bytes!");
-            }
-            //buf.clear();
-        } catch(Exception e){
-            throw new RuntimeException(e);
         }
-        //notifyChanges(new MsgByteBuffer(buf, processID));
+        return buf;
+    }
+
+    SelectableChannel getSinkChannel(){
+        return sinkChannel;
+    }
+
+    int getProcessID(){
+        return processID;
     }
 
     // make this method package visible
@@ -11,8 +11,8 @@ import icecube.daq.splicer.SpliceableFactory;
 
 import java.util.*;
 import java.io.*;
-import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -26,14 +26,23 @@ import org.apache.commons.logging.LogFactory;
  */
 public class FileReaderManager {
 
+    /** replay as fast as the consumers will take payloads */
+    public static final int REPLAY_UNTHROTTLED = 0;
+    /** replay each channel at a fixed rate */
+    public static final int REPLAY_FIXED_RATE = 1;
+    /** replay all channels together at a target aggregate rate */
+    public static final int REPLAY_AGGREGATE_RATE = 2;
+
+    /** payloads written to one channel before moving on to the next */
+    private static final int MAX_WRITES_PER_TURN = 64;
+
     private List fileReaders;
     private String sourceFileName;
     private int numSubFiles = 0;
-    private Random random;
-    private IByteBufferCache bufferCacheMgr;
-    private final int MAX_SLEEP_TIME = 20;
+    private int replayMode = REPLAY_UNTHROTTLED;
+    private double replayRate = 0.0;
     private boolean isRunning = false;
-    private PayloadReader payloadReader;
+    private FileChannel sourceChannel;
     private static SpliceableFactory sFac = new MasterPayloadFactory();
     private Log log = LogFactory.getLog(FileReaderManager.class);
 
@@ -46,16 +55,10 @@ public class FileReaderManager {
         }
         this.sourceFileName = sourceFileName;
 
-        payloadReader = new PayloadReader(sourceFileName);
-
         this.numSubFiles = numSubFiles;
 
-        random = new Random();
-
         fileReaders = new ArrayList();
 
-		bufferCacheMgr = new ByteBufferCache(1024,"FileReaderManager");
-
         init();
     }
 
@@ -73,76 +76,38 @@ public class FileReaderManager {
             if (log.isInfoEnabled()) {
                 log.info("Using a single channel for " + sourceFileName);
             }
-        } else {
-            // create FileReaderChannel and add them to the list
-            List subFileChannels = new ArrayList();
+        } else if (PayloadReaders.isCompressed(sourceFileName)) {
+            // deal whole blocks out round-robin so each block is only
+            // inflated once; each channel replays its blocks in order
             for (int i = 0; i < numSubFiles; i++) {
-                File subFile = new File(sourceFile.getParentFile(), (i + sourceFile.getName()));
-                if (subFile.exists()) {
-                    subFile.delete();
+                CompressedPayloadReader reader =
+                    new CompressedPayloadReader(sourceFileName, i, numSubFiles);
+                numPayloads = (int) reader.getPayloadCount();
+                if (i == 0 && reader.getBlockCount() < numSubFiles && log.isWarnEnabled()) {
+                    log.warn(sourceFileName + " has only " + reader.getBlockCount() +
+                             " blocks, so some of the " + numSubFiles +
+                             " channels will be empty");
                 }
-                FileChannel wChannel = new FileOutputStream(subFile, true).getChannel();
-                subFileChannels.add(wChannel);
-                FileReaderChannel frc = new FileReaderChannel(subFile.getAbsolutePath(), i);
-                fileReaders.add(frc);
+                fileReaders.add(new FileReaderChannel(reader, i));
             }
-
-            payloadReader.open();
-            int numRead = 1;
-            int subFileChannelIndex = 0;
-            // now, read from the main source file and write to the temp files
-            while (numRead > 0) {
-                ByteBuffer buf = bufferCacheMgr.acquireBuffer(BufferUtil.DEFAULT_BUFFER_BLEN);
-                if (buf == null) {
-                    try {
-                        Thread.sleep(100);
-                    } catch (InterruptedException ie) {
-                        //ignore this for now
-                    }
-                    continue;
-                }
-                try {
-                    buf.clear();
-                    numRead = payloadReader.readNextPayload(buf);
-                } catch (EOFException e) {
-                    if (log.isInfoEnabled()) {
-                        log.info("End of Initialization");
-                    }
-                    bufferCacheMgr.returnBuffer(buf);
-                    
-                    return;
-                } catch (Exception e) {
-                    if (log.isWarnEnabled()) {
-                        log.info("What happend here? " + e.getMessage());
-                    }
-                }
-                if (numRead < 1) {
-
-                    bufferCacheMgr.returnBuffer(buf);
-                    break;
-                }
-                int header = buf.getInt(0);
-                buf.limit(header);
-                buf.position(0);
-                FileChannel wChannel = (FileChannel) subFileChannels.get(subFileChannelIndex);
-                wChannel.write(buf);
-                numPayloads++;
-                if (subFileChannelIndex < subFileChannels.size() - 1) {
-                    ++subFileChannelIndex;
-                } else {
-                    subFileChannelIndex = 0;
-                }
-                bufferCacheMgr.returnBuffer(buf);
+            if (log.isInfoEnabled()) {
+                log.info("Using " + numSubFiles + " channels for " + numPayloads +
+                         " compressed payloads in " + sourceFileName);
             }
-
-            for (int i = 0; i < subFileChannels.size(); i++) {
-                FileChannel wChannel = (FileChannel) subFileChannels.get(i);
-                wChannel.close();
+        } else {
+            // index the source file once and give each FileReaderChannel
+            // a view of every numSubFiles-th payload
+            sourceChannel = new RandomAccessFile(sourceFile, "r").getChannel();
+            PayloadFileIndex index = PayloadFileIndex.open(sourceFileName, sourceChannel);
+            numPayloads = index.size();
+            for (int i = 0; i < numSubFiles; i++) {
+                PayloadFileView view = new PayloadFileView(sourceChannel, index, i, numSubFiles);
+                FileReaderChannel frc = new FileReaderChannel(view, i);
+                fileReaders.add(frc);
             }
-            subFileChannels.clear();
-            payloadReader.close();
             if (log.isInfoEnabled()) {
-                log.info("Using " + numSubFiles + " channels for " + sourceFileName);
+                log.info("Using " + numSubFiles + " channels for " + numPayloads +
+                         " payloads in " + sourceFileName);
             }
         }
     }
@@ -151,50 +116,129 @@ public class FileReaderManager {
         return (FileReaderChannel[]) fileReaders.toArray(new FileReaderChannel[fileReaders.size()]);
     }
 
-    public void startProcessing() throws IOException {
+    /**
+     * choose how fast payloads are replayed
+     * @param replayMode REPLAY_UNTHROTTLED, REPLAY_FIXED_RATE (every channel
+     *                   at <tt>rate</tt>) or REPLAY_AGGREGATE_RATE (all
+     *                   channels together at <tt>rate</tt>)
+     * @param rate payloads per second, ignored when unthrottled
+     */
+    public void setReplayMode(int replayMode, double rate) {
         if (isRunning) {
+            if (log.isWarnEnabled()) {
+                log.warn("cannot change the replay mode while FileReaderManager is running");
+            }
             return;
-        } else {
-            isRunning = true;
-            int fileReaderIndex = 0;
-            int countReaderChannelDone = 0;
-
-            if (fileReaders.size() > 0) {
-                while (countReaderChannelDone < fileReaders.size()) {
-                    ByteBuffer byteBuffer = bufferCacheMgr.acquireBuffer(BufferUtil.DEFAULT_BUFFER_BLEN);
-                    if (byteBuffer == null) {
-                        throw new NullPointerException("Cannot start reading with a null BytteBuffer");
-                    }
+        }
+        if (replayMode != REPLAY_UNTHROTTLED && !(rate > 0.0)) {
+            throw new IllegalArgumentException("Bad replay rate " + rate);
+        }
+        switch (replayMode) {
+            case REPLAY_UNTHROTTLED:
+            case REPLAY_FIXED_RATE:
+            case REPLAY_AGGREGATE_RATE:
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown replay mode " + replayMode);
+        }
+        this.replayMode = replayMode;
+        this.replayRate = rate;
+    }
 
-                    FileReaderChannel readerChannel = (FileReaderChannel) fileReaders.get(fileReaderIndex);
+    public int getReplayMode() {
+        return replayMode;
+    }
 
-                    if (log.isDebugEnabled()) {
-                        log.debug("Reading from channel ID = " + fileReaderIndex);
-                    }
+    public double getReplayRate() {
+        return replayRate;
+    }
 
-                    if (readerChannel.isDone()) {
-                        readerChannel.stop();
-                        ++countReaderChannelDone;
-                    } else {
-                        readerChannel.read(byteBuffer);
-                    }
-                    try {
-                        Thread.sleep(MAX_SLEEP_TIME);
-                    } catch (Exception e) {
-                        e.printStackTrace();
+    public void startProcessing() throws IOException {
+        if (isRunning || fileReaders.size() == 0) {
+            return;
+        }
+        isRunning = true;
+
+        PayloadPacer sharedPacer = null;
+        if (replayMode == REPLAY_AGGREGATE_RATE) {
+            sharedPacer = new PayloadPacer(replayRate, fileReaders.size());
+        }
+
+        ReadinessSelector selector = new ReadinessSelector();
+        List throttled = new ArrayList();
+        int numActive = fileReaders.size();
+        try {
+            for (int i = 0; i < fileReaders.size(); i++) {
+                FileReaderChannel frc = (FileReaderChannel) fileReaders.get(i);
+                frc.getSinkChannel().configureBlocking(false);
+
+                PayloadPacer pacer = sharedPacer;
+                if (replayMode == REPLAY_FIXED_RATE) {
+                    pacer = new PayloadPacer(replayRate, 1);
+                }
+                ReplayChannel replay = new ReplayChannel(frc, pacer);
+                replay.key = selector.register(frc.getSinkChannel(), SelectionKey.OP_WRITE, replay);
+            }
+
+            while (numActive > 0) {
+                List ready;
+                if (throttled.size() < numActive) {
+                    long timeout = -1;
+                    if (throttled.size() > 0) {
+                        timeout = Math.max(0L, earliestDeadline(throttled) - System.nanoTime());
                     }
-                    bufferCacheMgr.returnBuffer(byteBuffer);
-                    if (readerChannel.isDone()) {
-                        readerChannel.stop();
+                    selector.select(timeout);
+                    ready = selector.selectedKeys();
+                } else {
+                    // every channel is waiting for its pacer
+                    PayloadPacer.waitUntil(earliestDeadline(throttled));
+                    ready = Collections.EMPTY_LIST;
+                }
+
+                for (int i = 0; i < ready.size(); i++) {
+                    ReadinessSelector.ReadinessKey key = (ReadinessSelector.ReadinessKey) ready.get(i);
+                    ReplayChannel replay = (ReplayChannel) key.attachment();
+                    int state = replay.service();
+                    if (state == ReplayChannel.THROTTLED) {
+                        key.interestOps(0);
+                        throttled.add(replay);
+                    } else if (state == ReplayChannel.FINISHED) {
+                        key.cancel();
+                        replay.frc.stop();
+                        numActive--;
                     }
-                    if (fileReaderIndex < fileReaders.size() - 1) {
-                        ++fileReaderIndex;
-                    } else {
-                        fileReaderIndex = 0;
+                }
+
+                // wake up channels whose pacer is due again
+                if (throttled.size() > 0) {
+                    long now = System.nanoTime();
+                    for (Iterator iter = throttled.iterator(); iter.hasNext(); ) {
+                        ReplayChannel replay = (ReplayChannel) iter.next();
+                        if (replay.pacer.nextAvailableNanos() - now <= 0) {
+                            replay.key.interestOps(SelectionKey.OP_WRITE);
+                            iter.remove();
+                        }
                     }
                 }
             }
+        } finally {
+            selector.close();
+        }
+        if (log.isInfoEnabled()) {
+            log.info("Finished replaying " + sourceFileName);
+        }
+    }
+
+    private static long earliestDeadline(List throttled) {
+        long deadline = Long.MAX_VALUE;
+        for (int i = 0; i < throttled.size(); i++) {
+            ReplayChannel replay = (ReplayChannel) throttled.get(i);
+            long next = replay.pacer.nextAvailableNanos();
+            if (deadline == Long.MAX_VALUE || next - deadline < 0) {
+                deadline = next;
+            }
         }
+        return deadline;
     }
 
     public void stop() throws IOException {
@@ -202,6 +246,10 @@ public class FileReaderManager {
             FileReaderChannel frc = (FileReaderChannel) fileReaders.get(i);
             frc.stop();
         }
+        if (sourceChannel != null) {
+            sourceChannel.close();
+            sourceChannel = null;
+        }
 
         isRunning = false;
     }
@@ -219,4 +267,43 @@ public class FileReaderManager {
             e.printStackTrace();
         }
     }
+
+    // replay state of one FileReaderChannel
+    class ReplayChannel {
+
+        static final int BLOCKED = 0;
+        static final int THROTTLED = 1;
+        static final int FINISHED = 2;
+
+        FileReaderChannel frc;
+        PayloadPacer pacer;
+        ReadinessSelector.ReadinessKey key;
+
+        ReplayChannel(FileReaderChannel frc, PayloadPacer pacer) {
+            this.frc = frc;
+            this.pacer = pacer;
+        }
+
+        // write payloads until the sink is full, the pacer says wait,
+        // or the stop signal has been sent
+        int service() throws IOException {
+            for (int n = 0; n < MAX_WRITES_PER_TURN; n++) {
+                if (!frc.hasPending() && !frc.isDone() &&
+                    pacer != null && !pacer.tryAcquire(1))
+                {
+                    return THROTTLED;
+                }
+                if (!frc.writeNext()) {
+                    return BLOCKED;
+                }
+                if (frc.isDone()) {
+                    return FINISHED;
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("Wrote payload from channel ID = " + frc.getProcessID());
+                }
+            }
+            return BLOCKED;
+        }
+    }
 }
@@ -9,36 +9,64 @@ package icecube.daq.testUtil;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import java.nio.channels.WritableByteChannel;
+import java.nio.channels.FileChannel;
 import java.nio.channels.Pipe;
 import java.nio.channels.SelectableChannel;
 import java.nio.ByteBuffer;
 import java.io.IOException;
+import java.io.File;
 import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.zip.Deflater;
 
 /**
- * This class will be used to write the output to the destination file
+ * This class will be used to write the output to the destination file.
+ * Payloads are coalesced into large batches by a GroupCommitWriter, which
+ * writes them to disk from a background thread.  The file is closed when
+ * the channel stops; restarting the channel reopens it and appends.  If
+ * <tt>setWriteIndex()</tt>
+ * is on, a PayloadFileIndex of the file is kept as it is written and saved
+ * next to it when the channel stops.  If <tt>setCompressed()</tt> is on, the
+ * file is written in CompressedPayloadWriter's block-compressed format
+ * instead, and cannot be restarted.
  * @author artur
  * @version $Id: FileWriterChannel.java,v 1.13 2005/11/18 20:07:42 artur Exp $
  */
 public class FileWriterChannel implements OutputDestination, Runnable {
 
-    private WritableByteChannel channel;
+    private FileChannel channel;
+    private GroupCommitWriter writer;
+    private int batchSize = GroupCommitWriter.DEFAULT_BATCH_SIZE;
+    private long flushInterval = 0;
+    private int syncPolicy = GroupCommitWriter.SYNC_NONE;
     private Pipe.SourceChannel sourceChannel;
     private Pipe.SinkChannel sinkChannel;
     private Pipe pipe;
     private int processID = 0;
     private boolean stop = true;
     private boolean running = false;
-    private ByteBuffer buf = ByteBuffer.allocate(BufferUtil.DEFAULT_BUFFER_BLEN);
+    private FrameDecoder decoder = new FrameDecoder();
     private String destFileName;
+    private PayloadMetrics metrics;
+    private LatencyTracer tracer;
+    private boolean writeIndex = false;
+    private PayloadFileIndex index;
+    private boolean compressed = false;
+    private int compressedBlockSize = CompressedPayloadWriter.DEFAULT_BLOCK_SIZE;
+    private CompressedPayloadWriter compressor;
+    /** file offset of the first byte written by the current writer */
+    private long baseOffset = 0;
+    /** has a previous run closed the file? */
+    private boolean closedOnce = false;
+    /** was the file written compressed? */
+    private boolean wroteCompressed = false;
 
     private Log log = LogFactory.getLog(FileWriterChannel.class);
 
     // create the channel to read from and write to
     public FileWriterChannel(String destFileName, int processID) throws IOException{
         channel = new FileOutputStream(destFileName).getChannel();
-        pipe = Pipe.open();
+        pipe = PipeFactory.open();
 
         sourceChannel = pipe.source();
         sourceChannel.configureBlocking(true);
@@ -75,7 +103,119 @@ public class FileWriterChannel implements OutputDestination, Runnable {
         }
     }
 
+    /**
+     * set the size of the batches written to disk
+     * @param batchSize bytes per batch
+     */
+    public void setBatchSize(int batchSize) {
+        if (running) {
+            log.warn("Batch size change will not take effect until FileWriterChannel ID: " + processID + " is restarted");
+        }
+        this.batchSize = batchSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * set how long a partial batch may wait before it is written
+     * @param flushInterval milliseconds, or 0 to only write full batches
+     */
+    public void setFlushInterval(long flushInterval) {
+        if (running) {
+            log.warn("Flush interval change will not take effect until FileWriterChannel ID: " + processID + " is restarted");
+        }
+        this.flushInterval = flushInterval;
+    }
+
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    /**
+     * set when data is forced to disk
+     * @param syncPolicy one of the GroupCommitWriter SYNC_* constants
+     */
+    public void setSyncPolicy(int syncPolicy) {
+        if (running) {
+            log.warn("Sync policy change will not take effect until FileWriterChannel ID: " + processID + " is restarted");
+        }
+        this.syncPolicy = syncPolicy;
+    }
+
+    public int getSyncPolicy() {
+        return syncPolicy;
+    }
+
+    /**
+     * set whether to save an index of the file (as <tt>&lt;file&gt;.idx</tt>)
+     * when the channel stops
+     * @param writeIndex <tt>true</tt> to write the index
+     */
+    public void setWriteIndex(boolean writeIndex) {
+        if (running) {
+            log.warn("Index setting will not take effect until FileWriterChannel ID: " + processID + " is restarted");
+        }
+        this.writeIndex = writeIndex;
+    }
+
+    public boolean isWriteIndex() {
+        return writeIndex;
+    }
+
+    /**
+     * set whether to write the file as independently deflated blocks, which
+     * CompressedPayloadReader can inflate in parallel on replay.  Compressed
+     * files carry their own block index, so <tt>setWriteIndex()</tt> is
+     * ignored.
+     * @param compressed <tt>true</tt> to compress the file
+     */
+    public void setCompressed(boolean compressed) {
+        if (running) {
+            log.warn("Compression change cannot take effect, FileWriterChannel ID: " + processID + " cannot be restarted once it has written " + destFileName);
+        }
+        this.compressed = compressed;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * set the number of uncompressed bytes in each compressed block
+     * @param compressedBlockSize bytes per block
+     */
+    public void setCompressedBlockSize(int compressedBlockSize) {
+        if (running) {
+            log.warn("Block size change cannot take effect, FileWriterChannel ID: " + processID + " cannot be restarted once it has written " + destFileName);
+        }
+        this.compressedBlockSize = compressedBlockSize;
+    }
+
+    public int getCompressedBlockSize() {
+        return compressedBlockSize;
+    }
+
     public void startProcessing(){
+        if (running){
+            log.warn("FileWriterChannel ID: " + processID + " is already running");
+            return;
+        }
+        if (closedOnce && (compressed || wroteCompressed)){
+            // the block index is at the end, so the file cannot be appended
+            throw new IllegalStateException("Cannot restart FileWriterChannel ID: " + processID +
+                                            ", compressed file " + destFileName + " is complete");
+        }
+        try {
+            openWriter();
+        } catch(IOException ioe){
+            throw new RuntimeException(ioe.getMessage());
+        }
+        if (metrics == null){
+            metrics = MetricsRegistry.register(MetricsRegistry.OUTPUT_DESTINATION, "FileWriterChannel", processID);
+        }
+        tracer = LatencyTracer.getTracer();
         if (stop){
             stop = false;
         }
@@ -89,40 +229,80 @@ public class FileWriterChannel implements OutputDestination, Runnable {
         thread.start();
     }
 
+    // (re)open the file and create the writer, compressor and index for a run
+    private void openWriter() throws IOException{
+        if (channel == null){
+            // restarted after the last run closed the file, so append
+            channel = new FileOutputStream(destFileName, true).getChannel();
+        }
+        baseOffset = channel.size();
+        writer = new GroupCommitWriter(channel, batchSize, flushInterval, syncPolicy);
+
+        compressor = null;
+        if (compressed){
+            compressor = new CompressedPayloadWriter(writer, compressedBlockSize, Deflater.BEST_SPEED);
+            wroteCompressed = true;
+            if (writeIndex){
+                log.warn("Not indexing compressed file " + destFileName);
+            }
+            index = null;
+        } else if (!writeIndex){
+            index = null;
+        } else if (index == null){
+            if (baseOffset == 0){
+                index = new PayloadFileIndex();
+            } else {
+                // pick up the payloads written by earlier runs
+                RandomAccessFile raf = new RandomAccessFile(destFileName, "r");
+                try {
+                    index = PayloadFileIndex.build(raf.getChannel());
+                } finally {
+                    raf.close();
+                }
+            }
+        }
+    }
+
     // read from the channel and write to the file
     public void run(){
 
         while(!stop){
             try {
-                buf.limit(BufferUtil.INT_SIZE);
-                buf.position(0);
-                while (buf.hasRemaining()) {
-                    sourceChannel.read(buf);
+                ByteBuffer frame = decoder.nextFrame();
+                if (frame == null){
+                    long start = (metrics == null ? 0L : System.nanoTime());
+                    int nRead = decoder.fill(sourceChannel);
+                    if (metrics != null){
+                        metrics.recordLatency(System.nanoTime() - start);
+                    }
+                    if (nRead < 0){
+                        throw new IOException("FileWriterChannel ID: " + processID + " lost its input before the STOP signal");
+                    }
+                    continue;
                 }
-                buf.position(0);
-                int recLength = buf.getInt(0);
-                if (recLength == BufferUtil.INT_SIZE){
+                int recLength = frame.remaining();
+                if (FrameDecoder.isStopFrame(frame)){
                     stop = true;
                     if (log.isInfoEnabled()){
                         log.info("FileWriterChannel ID: " + processID + " got a STOP signal");
                     }
-                    running = false;
-                    return;
+                    break;
+                }
+                if (tracer != null){
+                    tracer.received(frame);
                 }
-                buf.limit(BufferUtil.INT_SIZE);
-                channel.write(buf);
-                buf.clear();
-                if (recLength > BufferUtil.DEFAULT_BUFFER_BLEN){
-                    buf = ByteBuffer.allocate(recLength);
-                    System.out.println("Creating a new ByteBuffer of length: " + recLength);
+                if (index != null){
+                    index.add(baseOffset + writer.getPosition(), frame);
                 }
-                buf.limit(recLength - BufferUtil.INT_SIZE);
-                buf.position(0);
-                while (buf.hasRemaining()) {
-                    sourceChannel.read(buf);
+                if (metrics == null){
+                    writeFrame(frame);
+                } else {
+                    // the writer only blocks while the disk is behind
+                    long start = System.nanoTime();
+                    writeFrame(frame);
+                    metrics.addBlocked(System.nanoTime() - start);
+                    metrics.addPayloads(1, recLength);
                 }
-                buf.position(0);
-                channel.write(buf);
                 if (log.isDebugEnabled()){
                     log.debug("write ByteBuffer to file from Channel ID: " + processID + " length: " + recLength);
                 }
@@ -130,6 +310,41 @@ public class FileWriterChannel implements OutputDestination, Runnable {
                 throw new RuntimeException(ioe.getMessage());
             }
         }
+
+        try {
+            if (compressor != null){
+                compressor.close();
+                if (log.isInfoEnabled()){
+                    log.info("FileWriterChannel ID: " + processID + " compressed " + compressor.getUncompressedBytes() +
+                             " bytes to " + compressor.getCompressedBytes());
+                }
+            } else {
+                writer.close();
+            }
+            if (index != null){
+                index.save(new File(destFileName + PayloadFileIndex.SUFFIX));
+                if (log.isInfoEnabled()){
+                    log.info("FileWriterChannel ID: " + processID + " indexed " + index.size() + " payloads");
+                }
+            }
+        } catch(IOException ioe){
+            throw new RuntimeException(ioe.getMessage());
+        } finally {
+            // the writer closed the file
+            writer = null;
+            compressor = null;
+            channel = null;
+            closedOnce = true;
+            running = false;
+        }
+    }
+
+    private void writeFrame(ByteBuffer frame) throws IOException {
+        if (compressor != null){
+            compressor.write(frame);
+        } else {
+            writer.write(frame);
+        }
     }
 }
 
@@ -0,0 +1,121 @@
+/**
+ * FrameDecoder
+ *
+ * (c) 2026 IceCube Collaboration
+ */
+package icecube.daq.testUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.io.IOException;
+
+/**
+ * Splits a stream of length-prefixed payloads into frames.  Data is read
+ * from the channel in large chunks and complete frames are handed out as
+ * slices of the internal buffer, so a full pipe costs one read for many
+ * payloads.  A partial frame at the end of a chunk is carried over to the
+ * next <tt>fill()</tt>, and the buffer grows if a single frame is larger
+ * than it.
+ * <p/>
+ * Frames returned by <tt>nextFrame()</tt> are only valid until the next
+ * call to <tt>fill()</tt>.
+ */
+public class FrameDecoder {
+
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+    /** unconsumed data lies between position and limit */
+    private ByteBuffer buf;
+
+    /**
+     * create a decoder with the default buffer size
+     */
+    public FrameDecoder() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * create a decoder
+     * @param bufferSize initial buffer size in bytes
+     */
+    public FrameDecoder(int bufferSize) {
+        if (bufferSize < BufferUtil.INT_SIZE) {
+            throw new IllegalArgumentException("Bad buffer size " + bufferSize);
+        }
+        buf = ByteBuffer.allocateDirect(bufferSize);
+        buf.limit(0);
+    }
+
+    /**
+     * is this the 4-byte frame which ends a stream?
+     * @param frame frame returned by <tt>nextFrame()</tt>
+     * @return <tt>true</tt> if this is a stop frame
+     */
+    public static boolean isStopFrame(ByteBuffer frame) {
+        return frame.remaining() == BufferUtil.INT_SIZE;
+    }
+
+    /**
+     * read as much as the channel will give in one call, after moving any
+     * partial frame to the front of the buffer
+     * @param channel channel to read from
+     * @return number of bytes read, or -1 at end of stream
+     * @throws IOException if the read fails
+     */
+    public int fill(ReadableByteChannel channel) throws IOException {
+        int needed = BufferUtil.INT_SIZE;
+        if (buf.remaining() >= BufferUtil.INT_SIZE) {
+            needed = Math.max(needed, buf.getInt(buf.position()));
+        }
+        if (needed > buf.capacity()) {
+            ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(needed, buf.capacity() * 2));
+            bigger.put(buf);
+            buf = bigger;
+        } else {
+            buf.compact();
+        }
+
+        int nRead;
+        try {
+            nRead = channel.read(buf);
+        } finally {
+            buf.flip();
+        }
+        return nRead;
+    }
+
+    /**
+     * slice the next complete frame out of the buffer
+     * @return frame including its length word, or <tt>null</tt> if more
+     *         data must be read first
+     * @throws IOException if the frame length is invalid
+     */
+    public ByteBuffer nextFrame() throws IOException {
+        if (buf.remaining() < BufferUtil.INT_SIZE) {
+            return null;
+        }
+        int start = buf.position();
+        int len = buf.getInt(start);
+        if (len < BufferUtil.INT_SIZE) {
+            throw new IOException("Bad frame length " + len);
+        }
+        if (buf.remaining() < len) {
+            return null;
+        }
+
+        int lim = buf.limit();
+        buf.limit(start + len);
+        ByteBuffer frame = buf.slice();
+        buf.limit(lim);
+        buf.position(start + len);
+        return frame;
+    }
+
+    /**
+     * get the number of bytes read but not yet returned as frames
+     * @return buffered bytes
+     */
+    public int buffered() {
+        return buf.remaining();
+    }
+}
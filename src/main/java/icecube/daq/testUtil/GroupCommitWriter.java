@@ -0,0 +1,325 @@
+/**
+ * GroupCommitWriter
+ *
+ * (c) 2026 IceCube Collaboration
+ */
+package icecube.daq.testUtil;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.io.IOException;
+
+/**
+ * Coalesces many small writes into large sequential writes to a file.
+ * Callers copy their data into the active batch buffer; when it is full
+ * (or the flush interval expires) the batch is handed to a background
+ * thread which writes it while the caller fills the second buffer.
+ * <p/>
+ * Full batches end on an <tt>ALIGNMENT</tt> boundary of the file.  Time-based
+ * flushes, <tt>flush()</tt> and the final flush write partial batches; the
+ * batch after a partial one (or after starting at an unaligned offset, as
+ * when appending to an existing file) is shortened to end on the next
+ * boundary, so the full batches after it are aligned again.
+ */
+public class GroupCommitWriter {
+
+    /** never force data to disk */
+    public static final int SYNC_NONE = 0;
+    /** force data to disk after every batch */
+    public static final int SYNC_EACH_BATCH = 1;
+    /** force data to disk once, when the writer is closed */
+    public static final int SYNC_ON_CLOSE = 2;
+
+    public static final int DEFAULT_BATCH_SIZE = 1024 * 1024;
+    public static final int ALIGNMENT = 4096;
+
+    private static final Log log = LogFactory.getLog(GroupCommitWriter.class);
+
+    private FileChannel channel;
+    private int syncPolicy;
+    private long flushIntervalNanos;
+
+    /** buffer being filled by the caller */
+    private ByteBuffer active;
+    /** free buffer, or <tt>null</tt> while a batch is being written */
+    private ByteBuffer spare;
+    /** batch handed to the I/O thread, or <tt>null</tt> if there is none */
+    private ByteBuffer pending;
+
+    /** time the first byte landed in the active batch */
+    private long batchStartNanos;
+    private long position = 0;
+    /** file offset of the first byte written */
+    private long startOffset = 0;
+    private boolean closed = false;
+    private IOException failure;
+    private Thread ioThread;
+
+    /**
+     * create a writer with the default batch size and no time-based
+     * flushing or syncing
+     * @param channel file to write to
+     */
+    public GroupCommitWriter(FileChannel channel) {
+        this(channel, DEFAULT_BATCH_SIZE, 0, SYNC_NONE);
+    }
+
+    /**
+     * create a writer
+     * @param channel file to write to
+     * @param batchSize bytes per batch, rounded up to a multiple of <tt>ALIGNMENT</tt>
+     * @param flushInterval milliseconds after which a partial batch is
+     *                      written, or 0 to only write full batches
+     * @param syncPolicy one of <tt>SYNC_NONE</tt>, <tt>SYNC_EACH_BATCH</tt>
+     *                   or <tt>SYNC_ON_CLOSE</tt>
+     */
+    public GroupCommitWriter(FileChannel channel, int batchSize, long flushInterval, int syncPolicy) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Bad batch size " + batchSize);
+        }
+        if (flushInterval < 0) {
+            throw new IllegalArgumentException("Bad flush interval " + flushInterval);
+        }
+        if (syncPolicy < SYNC_NONE || syncPolicy > SYNC_ON_CLOSE) {
+            throw new IllegalArgumentException("Bad sync policy " + syncPolicy);
+        }
+        int alignedSize = ((batchSize + ALIGNMENT - 1) / ALIGNMENT) * ALIGNMENT;
+
+        this.channel = channel;
+        this.syncPolicy = syncPolicy;
+        this.flushIntervalNanos = flushInterval * 1000000L;
+        active = ByteBuffer.allocateDirect(alignedSize);
+        spare = ByteBuffer.allocateDirect(alignedSize);
+        try {
+            startOffset = channel.position();
+        } catch (IOException ioe) {
+            log.warn("Couldn't get file position; assuming batches start aligned", ioe);
+        }
+        align(active);
+
+        ioThread = new Thread(new BatchWriter());
+        ioThread.setName("GroupCommitWriter");
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    /**
+     * translate a sync policy name from a configuration file
+     * @param name "none", "batch" or "close"
+     * @return sync policy
+     */
+    public static int getSyncPolicy(String name) {
+        if (name == null || name.equalsIgnoreCase("none")) {
+            return SYNC_NONE;
+        } else if (name.equalsIgnoreCase("batch")) {
+            return SYNC_EACH_BATCH;
+        } else if (name.equalsIgnoreCase("close")) {
+            return SYNC_ON_CLOSE;
+        }
+        throw new IllegalArgumentException("Unknown sync policy \"" + name + "\"");
+    }
+
+    /**
+     * copy the remaining bytes of <tt>src</tt> into the current batch,
+     * handing off batches as they fill up
+     * @param src data to write
+     * @throws IOException if the writer is closed or a batch failed
+     */
+    public synchronized void write(ByteBuffer src) throws IOException {
+        if (closed) {
+            throw new IOException("Writer is closed");
+        }
+        checkFailure();
+
+        if (active.position() == 0 && src.hasRemaining()) {
+            batchStartNanos = System.nanoTime();
+            if (flushIntervalNanos > 0) {
+                // start the flush timer
+                notifyAll();
+            }
+        }
+        while (src.hasRemaining()) {
+            if (!active.hasRemaining()) {
+                handOff();
+                batchStartNanos = System.nanoTime();
+            }
+            int len = Math.min(src.remaining(), active.remaining());
+            int lim = src.limit();
+            src.limit(src.position() + len);
+            active.put(src);
+            src.limit(lim);
+            position += len;
+        }
+        if (!active.hasRemaining()) {
+            handOff();
+        }
+    }
+
+    /**
+     * write out the current partial batch and wait until it is on its way
+     * to disk
+     * @throws IOException if a batch failed
+     */
+    public synchronized void flush() throws IOException {
+        if (active.position() > 0) {
+            handOff();
+        }
+        while (pending != null && failure == null) {
+            waitForWriter();
+        }
+        checkFailure();
+    }
+
+    /**
+     * flush everything, sync if requested, stop the I/O thread and close
+     * the file
+     * @throws IOException if a batch failed
+     */
+    public void close() throws IOException {
+        try {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                flush();
+                closed = true;
+                notifyAll();
+            }
+            try {
+                ioThread.join();
+            } catch (InterruptedException ie) {
+                throw new IOException("Interrupted while closing writer");
+            }
+            if (syncPolicy != SYNC_NONE) {
+                channel.force(true);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * get the number of bytes accepted so far, which is the file offset
+     * at which the next write will land
+     * @return file position
+     */
+    public synchronized long getPosition() {
+        return position;
+    }
+
+    // must be called while holding the lock
+    private void handOff() throws IOException {
+        while (pending != null && failure == null) {
+            waitForWriter();
+        }
+        checkFailure();
+
+        swap();
+        notifyAll();
+    }
+
+    // hand the active batch to the I/O thread and start filling the spare;
+    // must be called while holding the lock
+    private void swap() {
+        active.flip();
+        pending = active;
+        active = spare;
+        spare = null;
+        align(active);
+    }
+
+    // make an empty batch end on the next aligned file offset
+    private void align(ByteBuffer batch) {
+        int skew = (int) ((startOffset + position) % ALIGNMENT);
+        if (skew != 0) {
+            batch.limit(batch.capacity() - skew);
+        }
+    }
+
+    // must be called while holding the lock
+    private void waitForWriter() throws IOException {
+        try {
+            wait();
+        } catch (InterruptedException ie) {
+            throw new IOException("Interrupted while waiting for batch to be written");
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            IOException ioe = new IOException("Batch write failed: " + failure.getMessage());
+            ioe.initCause(failure);
+            throw ioe;
+        }
+    }
+
+    // writes batches handed off by the caller
+    class BatchWriter implements Runnable {
+        public void run() {
+            while (true) {
+                ByteBuffer batch;
+                synchronized (GroupCommitWriter.this) {
+                    try {
+                        batch = nextBatch();
+                    } catch (InterruptedException ie) {
+                        log.error("GroupCommitWriter interrupted", ie);
+                        return;
+                    }
+                    if (batch == null) {
+                        return;
+                    }
+                }
+
+                int len = batch.remaining();
+                try {
+                    while (batch.hasRemaining()) {
+                        channel.write(batch);
+                    }
+                    if (syncPolicy == SYNC_EACH_BATCH) {
+                        channel.force(false);
+                    }
+                } catch (IOException ioe) {
+                    log.error("Couldn't write " + len + " byte batch", ioe);
+                    synchronized (GroupCommitWriter.this) {
+                        failure = ioe;
+                        GroupCommitWriter.this.notifyAll();
+                    }
+                    return;
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("wrote " + len + " byte batch");
+                }
+
+                synchronized (GroupCommitWriter.this) {
+                    batch.clear();
+                    spare = batch;
+                    pending = null;
+                    GroupCommitWriter.this.notifyAll();
+                }
+            }
+        }
+
+        // must be called while holding the lock
+        private ByteBuffer nextBatch() throws InterruptedException {
+            while (pending == null) {
+                if (closed) {
+                    return null;
+                }
+                if (flushIntervalNanos > 0 && active.position() > 0) {
+                    long waitNanos = batchStartNanos + flushIntervalNanos - System.nanoTime();
+                    if (waitNanos <= 0) {
+                        swap();
+                        break;
+                    }
+                    GroupCommitWriter.this.wait(waitNanos / 1000000L, (int) (waitNanos % 1000000L));
+                } else {
+                    GroupCommitWriter.this.wait();
+                }
+            }
+            return pending;
+        }
+    }
+}
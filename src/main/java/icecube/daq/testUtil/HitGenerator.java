@@ -10,7 +10,9 @@
 
 package icecube.daq.testUtil;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * This class produces a ByteBuffer representation of a HitDataPayload
@@ -129,6 +131,11 @@ public class HitGenerator
     private int wrapperLength;
     private int payloadLength;
 
+    /**
+     * pre-rendered hit; only the per-hit fields are patched in
+     */
+    private byte[] template;
+
     /**
      * default constructor
      */
@@ -160,6 +167,8 @@ public class HitGenerator
         eventLength   = EVENT_SIZE_NO_WAVEFORMS + fadcLength + atwd01Length + atwd23Length;
         wrapperLength = WRAPPER_ENVELOPE_SIZE + eventLength;
         payloadLength = PAYLOAD_ENVELOPE_SIZE + wrapperLength;
+
+        template = renderTemplate();
     }
 
     /**
@@ -233,56 +242,169 @@ public class HitGenerator
     }
 
     /**
-     * generate a hit
-     * @param timeStamp corrected time of hit
-     * @param domId DOM id of hit
-     * @param sourceId source of hit
-     * @param triggerMode DOM triggering mode
-     * @return ByteBuffer representation of hit
+     * render the parts of a hit which are the same for every hit
+     * from this generator
+     * @return template bytes
      */
-    public ByteBuffer generateHit(long timeStamp, long domId, int sourceId, int triggerMode) {
+    private byte[] renderTemplate() {
         ByteBuffer byteBuffer = ByteBuffer.allocate(payloadLength);
 
         // payload envelope
         byteBuffer.putInt(PAYLOAD_LENGTH_OFFSET, payloadLength);
         byteBuffer.putInt(PAYLOAD_TYPE_OFFSET, payloadType);
-        byteBuffer.putLong(PAYLOAD_TIME_OFFSET, timeStamp);
         byteBuffer.putInt(TRIGGER_CONFIG_OFFSET, -1);
-        byteBuffer.putInt(SOURCE_ID_OFFSET, sourceId);
 
         // wrapper
         byteBuffer.putInt(WRAPPER_LENGTH_OFFSET, wrapperLength);
         byteBuffer.putInt(WRAPPER_ID_OFFSET, wrapperId);
-        byteBuffer.putLong(DOM_ID_OFFSET, domId);
         byteBuffer.putLong(SKIPPED_OFFSET, 0);
-        byteBuffer.putLong(CALIB_TIME_OFFSET, timeStamp);
-
-        // hit
-        byteBuffer.putShort(EVENT_LENGTH_OFFSET, new Integer(eventLength).shortValue());
-        byteBuffer.putShort(EVENT_FORMAT_OFFSET, new Integer(eventFormat).shortValue());
-        byteBuffer.put(MISC_OFFSET, new Integer(0).byteValue());
-        byteBuffer.put(NFADC_OFFSET, new Integer(nFadc).byteValue());
-        byteBuffer.put(ATWD_01_OFFSET, new Integer(atwd01).byteValue());
-        byteBuffer.put(ATWD_23_OFFSET, new Integer(atwd23).byteValue());
-        byteBuffer.put(TRIGGER_OFFSET, new Integer(triggerMode).byteValue());
-        byteBuffer.put(SPARE_OFFSET, new Integer(0).byteValue());
-        byteBuffer.position(TIME_STAMP_OFFSET);
-        byteBuffer.put( new byte[6] );
-
-        // waveform
-        if (fadcLength > 0) {
-            byteBuffer.put( new byte[fadcLength] );
-        }
-        if (atwd01Length > 0) {
-            byteBuffer.put( new byte[atwd01Length] );
+
+        // hit; the time stamp and waveforms are left as zeros
+        byteBuffer.putShort(EVENT_LENGTH_OFFSET, (short) eventLength);
+        byteBuffer.putShort(EVENT_FORMAT_OFFSET, (short) eventFormat);
+        byteBuffer.put(MISC_OFFSET, (byte) 0);
+        byteBuffer.put(NFADC_OFFSET, (byte) nFadc);
+        byteBuffer.put(ATWD_01_OFFSET, (byte) atwd01);
+        byteBuffer.put(ATWD_23_OFFSET, (byte) atwd23);
+        byteBuffer.put(SPARE_OFFSET, (byte) 0);
+
+        return byteBuffer.array();
+    }
+
+    /**
+     * get the length of every hit produced by this generator
+     * @return payload length in bytes
+     */
+    public int getPayloadLength() {
+        return payloadLength;
+    }
+
+    /**
+     * generate a hit
+     * @param timeStamp corrected time of hit
+     * @param domId DOM id of hit
+     * @param sourceId source of hit
+     * @param triggerMode DOM triggering mode
+     * @return ByteBuffer representation of hit
+     */
+    public ByteBuffer generateHit(long timeStamp, long domId, int sourceId, int triggerMode) {
+        ByteBuffer byteBuffer = ByteBuffer.allocate(payloadLength);
+        generateHit(timeStamp, domId, sourceId, triggerMode, byteBuffer);
+
+        // flip buffer before returning it
+        byteBuffer.flip();
+        return byteBuffer;
+    }
+
+    /**
+     * generate a hit into a caller-supplied buffer without allocating.
+     * The hit is written big-endian at the buffer's current position,
+     * and the position is advanced past it.
+     * @param timeStamp corrected time of hit
+     * @param domId DOM id of hit
+     * @param sourceId source of hit
+     * @param triggerMode DOM triggering mode
+     * @param byteBuffer destination buffer (heap or direct)
+     * @throws java.nio.BufferOverflowException if fewer than
+     *         {@link #getPayloadLength()} bytes remain in the buffer
+     */
+    public void generateHit(long timeStamp, long domId, int sourceId, int triggerMode,
+                            ByteBuffer byteBuffer) {
+        final int base = byteBuffer.position();
+        byteBuffer.put(template, 0, payloadLength);
+
+        ByteOrder order = byteBuffer.order();
+        if (order != ByteOrder.BIG_ENDIAN) {
+            byteBuffer.order(ByteOrder.BIG_ENDIAN);
         }
-        if (atwd23Length > 0) {
-            byteBuffer.put( new byte[atwd23Length] );
+
+        byteBuffer.putLong(base + PAYLOAD_TIME_OFFSET, timeStamp);
+        byteBuffer.putInt(base + SOURCE_ID_OFFSET, sourceId);
+        byteBuffer.putLong(base + DOM_ID_OFFSET, domId);
+        byteBuffer.putLong(base + CALIB_TIME_OFFSET, timeStamp);
+        byteBuffer.put(base + TRIGGER_OFFSET, (byte) triggerMode);
+
+        if (order != ByteOrder.BIG_ENDIAN) {
+            byteBuffer.order(order);
         }
+    }
+
+    /**
+     * get the number of bytes needed to hold a batch of hits
+     * @param count number of hits
+     * @return batch length in bytes
+     */
+    public int getBatchLength(int count) {
+        return count * payloadLength;
+    }
+
+    /**
+     * generate a batch of hits packed back to back into a single buffer
+     * @param timeStamps corrected time of each hit
+     * @param domIds DOM id of each hit
+     * @param sourceId source of the hits
+     * @param triggerMode DOM triggering mode
+     * @return ByteBuffer holding all the hits, ready to be written
+     */
+    public ByteBuffer generateHits(long[] timeStamps, long[] domIds, int sourceId, int triggerMode) {
+        ByteBuffer byteBuffer = ByteBuffer.allocate(getBatchLength(timeStamps.length));
+        generateHits(timeStamps, domIds, 0, timeStamps.length, sourceId, triggerMode, byteBuffer);
 
         // flip buffer before returning it
         byteBuffer.flip();
         return byteBuffer;
     }
 
+    /**
+     * generate a batch of hits into a caller-supplied buffer without
+     * allocating.  Hits are written big-endian starting at the buffer's
+     * current position, and the position is advanced past the last one.
+     * @param timeStamps corrected time of each hit
+     * @param domIds DOM id of each hit
+     * @param offset index of the first hit to generate
+     * @param count number of hits to generate
+     * @param sourceId source of the hits
+     * @param triggerMode DOM triggering mode
+     * @param byteBuffer destination buffer (heap or direct)
+     * @return number of bytes written
+     * @throws java.nio.BufferOverflowException if the whole batch
+     *         does not fit in the buffer; nothing is written in that case
+     */
+    public int generateHits(long[] timeStamps, long[] domIds, int offset, int count,
+                            int sourceId, int triggerMode, ByteBuffer byteBuffer) {
+        if (offset < 0 || count < 0 || offset + count > timeStamps.length ||
+            offset + count > domIds.length)
+        {
+            throw new IndexOutOfBoundsException("Bad batch offset " + offset +
+                                                " count " + count);
+        }
+
+        final int batchLength = getBatchLength(count);
+        if (byteBuffer.remaining() < batchLength) {
+            throw new BufferOverflowException();
+        }
+
+        ByteOrder order = byteBuffer.order();
+        if (order != ByteOrder.BIG_ENDIAN) {
+            byteBuffer.order(ByteOrder.BIG_ENDIAN);
+        }
+
+        final byte trigger = (byte) triggerMode;
+        int base = byteBuffer.position();
+        for (int i = offset; i < offset + count; i++) {
+            byteBuffer.put(template, 0, payloadLength);
+            byteBuffer.putLong(base + PAYLOAD_TIME_OFFSET, timeStamps[i]);
+            byteBuffer.putInt(base + SOURCE_ID_OFFSET, sourceId);
+            byteBuffer.putLong(base + DOM_ID_OFFSET, domIds[i]);
+            byteBuffer.putLong(base + CALIB_TIME_OFFSET, timeStamps[i]);
+            byteBuffer.put(base + TRIGGER_OFFSET, trigger);
+            base += payloadLength;
+        }
+
+        if (order != ByteOrder.BIG_ENDIAN) {
+            byteBuffer.order(order);
+        }
+        return batchLength;
+    }
+
 }
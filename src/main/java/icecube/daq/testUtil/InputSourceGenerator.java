@@ -21,7 +21,7 @@ import icecube.daq.sim.*;
  * @author artur
  * @version $Id: InputSourceGenerator.java,v 1.15 2005/11/10 05:48:49 artur Exp $
  */
-public class InputSourceGenerator implements InputSource {
+public class InputSourceGenerator implements InputSource, BatchGenerator {
 
     private Pipe.SinkChannel sinkChannel;
     private Pipe.SourceChannel sourceChannel;
@@ -37,9 +37,25 @@ public class InputSourceGenerator implements InputSource {
     private Long seed = null;
     private long totalHits = 100000;
     private Random domGenerator = new Random();
+    private int batchSize = 1;
+    private ByteBuffer batchBuf;
+    private int batchCount = 0;
+    private ISource hitSource;
+    private long stopTime;
+    private SimulationClock clock = new SimulationClock();
+    private double ticksPerHit;
+    private int untilClockCheck;
+    private PayloadMetrics metrics;
+    private LatencyTracer tracer;
+    private boolean nonBlocking = false;
+    private NonBlockingSink nonBlockingSink;
+    private boolean blocked = false;
+    private boolean stopQueued = false;
 
     private final String HIT_DATA_PAYLOAD = "HitDataPayload";
     private final String HIT_PAYLOAD = "HitPayload";
+    private final int BATCH_BUFFER_BLEN = 1024 * 1024;
+    private final int CLOCK_CHECK_INTERVAL = 64;
 
     private Log log = LogFactory.getLog(InputSourceGenerator.class);
 
@@ -47,7 +63,7 @@ public class InputSourceGenerator implements InputSource {
         generator = new icecube.daq.sim.HitGenerator();
         payloadType = HIT_PAYLOAD;
         try {
-            Pipe pipe = Pipe.open();
+            Pipe pipe = PipeFactory.open();
             sinkChannel = pipe.sink();
             sourceChannel = pipe.source();
             sinkChannel.configureBlocking(true);
@@ -183,6 +199,30 @@ public class InputSourceGenerator implements InputSource {
         return minutes;
     }
 
+    /**
+     * set the clock used for the run duration and for hit timestamps
+     * @param clock wall, simulated or scaled clock
+     */
+    public void setClock(SimulationClock clock) {
+        if (isRunning) {
+            if (log.isWarnEnabled()) {
+                log.warn("cannot change the clock while InputSourceGenerator is running");
+            }
+            return;
+        }
+        if (clock == null) {
+            throw new IllegalArgumentException("Clock cannot be null");
+        }
+        this.clock = clock;
+        if (log.isInfoEnabled()) {
+            log.info("Clock = " + clock);
+        }
+    }
+
+    public SimulationClock getClock() {
+        return clock;
+    }
+
     /**
      * return an array of SelectableChannel(s) generated by this object
      *
@@ -198,11 +238,121 @@ public class InputSourceGenerator implements InputSource {
      * @throws java.io.IOException
      */
     public void startProcessing() throws IOException {
+        if (prepareProcessing()) {
+            new Thread(new InputGenerator()).start();
+        }
+    }
+
+    /**
+     * get ready to generate hits without starting a thread
+     *
+     * @return <tt>false</tt> if the generator is already running
+     */
+    public synchronized boolean prepareProcessing() {
+        if (isRunning) {
+            return false;
+        }
         isRunning = true;
         if (log.isInfoEnabled()) {
             log.info("starting InputSourceGenerator");
         }
-        new Thread(new InputGenerator(seed)).start();
+
+        nonBlockingSink = null;
+        if (nonBlocking) {
+            try {
+                nonBlockingSink = new NonBlockingSink(sinkChannel);
+            } catch (IOException ioe) {
+                throw new RuntimeException(ioe);
+            }
+        }
+        blocked = false;
+        stopQueued = false;
+
+        if (seed == null) {
+            hitSource = new RandomSource(rate, numDoms, sourceID, triggerMode);
+        } else {
+            hitSource = new RandomSource(rate, numDoms, sourceID, triggerMode, seed.longValue());
+        }
+        getMetrics();
+        tracer = LatencyTracer.getTracer();
+        ticksPerHit = SimulationClock.ticksPerHit(rate, numDoms);
+        untilClockCheck = 0;
+        if (minutes < 1){
+            log.info("Will generate " + totalHits + " hits from " + numDoms + " DOMs, at a rate of "
+                     + rate + " per tenth of nanosecond per DOM");
+        } else {
+            log.info("Generator will run for " + minutes + " minutes on the " + clock);
+            stopTime = clock.currentTimeMillis() + minutes * 60 * 1000L;
+        }
+        return true;
+    }
+
+    /**
+     * generate up to maxPayloads hits, sending the stop signal once the
+     * generator is stopped or has produced everything it was asked for.
+     * A timed run only reads the clock every CLOCK_CHECK_INTERVAL hits;
+     * a simulated clock is moved forward by the same number of hits.
+     *
+     * @param maxPayloads most hits to generate in this slice
+     * @return <tt>true</tt> if there are more hits to generate
+     */
+    public boolean generateBatch(int maxPayloads) {
+        blocked = false;
+        if (nonBlockingSink != null) {
+            try {
+                blocked = !nonBlockingSink.drain();
+            } catch (IOException e) {
+                log.fatal("ERROR while writing output", e);
+                isRunning = false;
+                return false;
+            }
+            if (blocked) {
+                return true;
+            }
+            if (stopQueued) {
+                // the stop signal has now gone out
+                return false;
+            }
+        }
+
+        for (int n = 0; n < maxPayloads; n++) {
+            boolean more;
+            if (minutes < 1) {
+                more = numHits < totalHits;
+            } else if (untilClockCheck > 0) {
+                untilClockCheck--;
+                more = true;
+            } else {
+                clock.advance(ticksPerHit * CLOCK_CHECK_INTERVAL);
+                untilClockCheck = CLOCK_CHECK_INTERVAL - 1;
+                more = clock.currentTimeMillis() < stopTime;
+            }
+            if (!isRunning || !more) {
+                if (!stopQueued) {
+                    sendStopSignal();
+                }
+                blocked = (nonBlockingSink != null && nonBlockingSink.hasBacklog());
+                return blocked;
+            }
+            GenericHit hit = (GenericHit) hitSource.nextPayload();
+            sendPayload(hit);
+            if (nonBlockingSink != null && nonBlockingSink.hasBacklog()) {
+                blocked = true;
+                return true;
+            }
+        }
+        return true;
+    }
+
+    public void setNonBlocking(boolean nonBlocking) {
+        if (isRunning) {
+            log.warn("Non-blocking change will not take effect until the generator is restarted");
+        }
+        this.nonBlocking = nonBlocking;
+    }
+
+    public boolean isBlocked() {
+        return blocked;
     }
 
     /**
@@ -237,8 +387,37 @@ public class InputSourceGenerator implements InputSource {
         return totalHits;
     }
 
+    /**
+     * set the number of payloads coalesced into each channel write
+     * @param batchSize payloads per write (1 writes each payload immediately)
+     */
+    public void setBatchSize(int batchSize) {
+        if (isRunning) {
+            if (log.isWarnEnabled()) {
+                log.warn("cannot change the batch size while InputSourceGenerator is running");
+            }
+            return;
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+        this.batchSize = batchSize;
+        if (log.isInfoEnabled()) {
+            log.info("Batch Size = " + batchSize);
+        }
+    }
+
+    /**
+     * get the number of payloads coalesced into each channel write
+     * @return payloads per write
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
     public void generatePayload() {
-        long currentTime = System.currentTimeMillis();
+        long currentTime = clock.currentTimeMillis();
+        clock.advance(ticksPerHit);
         long domId = (long) domGenerator.nextInt(numDoms);
         sendPayload(new GenericHit(currentTime, domId, sourceID, triggerMode));
     }
@@ -249,22 +428,75 @@ public class InputSourceGenerator implements InputSource {
                 triggerMode + " numHits: " + numHits;
     }
 
+    /**
+     * render a hit stamped with the given time without writing it, for
+     * callers which manage the sink themselves
+     *
+     * @param currentTime hit time in milliseconds
+     * @return payload, ready to be written
+     */
+    ByteBuffer renderPayload(long currentTime) {
+        long domId = (long) domGenerator.nextInt(numDoms);
+        ++numHits;
+        ByteBuffer buf = renderHit(new GenericHit(currentTime, domId, sourceID, triggerMode));
+        if (metrics != null) {
+            metrics.addPayloads(1, buf.remaining());
+        }
+        if (tracer != null) {
+            tracer.sent(sourceID, buf);
+        }
+        return buf;
+    }
+
+    Pipe.SinkChannel getSinkChannel() {
+        return sinkChannel;
+    }
+
+    // trace payloads rendered for the single-thread event loop
+    void setTracer(LatencyTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * get this generator's metrics, registering them on first use
+     * @return metrics, or <tt>null</tt> if metrics are disabled
+     */
+    synchronized PayloadMetrics getMetrics() {
+        if (metrics == null) {
+            metrics = MetricsRegistry.register(MetricsRegistry.INPUT_SOURCE,
+                                               "InputSourceGenerator", sourceID);
+        }
+        return metrics;
+    }
+
+    private ByteBuffer renderHit(GenericHit hit) {
+        ByteBuffer buf = generator.generatePayload(hit);
+        buf.clear();
+        int header = buf.getInt(0);
+        buf.limit(header);
+        buf.position(0);
+        if (buf.getInt(0) < 4) {
+            throw new RuntimeException("Problem while generating hits " + header);
+        }
+        return buf;
+    }
+
     private void sendPayload(GenericHit hit){
         if (null != hit) {
             ++numHits;
             try {
-                ByteBuffer buf = generator.generatePayload(hit);
-                buf.clear();
-                int header = buf.getInt(0);
-                buf.limit(header);
-                buf.position(0);
-                if (buf.getInt(0) < 4) {
-                    throw new RuntimeException("Problem while generating hits " + header);
+                ByteBuffer buf = renderHit(hit);
+                int len = buf.remaining();
+                if (tracer != null) {
+                    tracer.sent(sourceID, buf);
+                }
+                if (batchSize > 1) {
+                    addToBatch(buf);
+                } else {
+                    writeFully(buf);
                 }
-                int result = sinkChannel.write(buf);
-                if (result != header) {
-                    throw new RuntimeException("SinkChannel failed to write, expected " +
-                            header + " got " + result);
+                if (metrics != null) {
+                    metrics.addPayloads(1, len);
                 }
                 if (log.isDebugEnabled()) {
                     log.debug("Generated HitPayload with timestamp = " + hit.getTimeStamp());
@@ -283,6 +515,56 @@ public class InputSourceGenerator implements InputSource {
         }
     }
 
+    // copy a payload into the current batch, writing the batch when it is full
+    private void addToBatch(ByteBuffer buf) throws IOException {
+        if (batchBuf == null) {
+            batchBuf = ByteBuffer.allocateDirect(BATCH_BUFFER_BLEN);
+        }
+        if (buf.remaining() > batchBuf.remaining()) {
+            flushBatch();
+            if (buf.remaining() > batchBuf.remaining()) {
+                writeFully(buf);
+                return;
+            }
+        }
+        batchBuf.put(buf);
+        if (++batchCount >= batchSize) {
+            flushBatch();
+        }
+    }
+
+    // write any payloads waiting in the current batch
+    private void flushBatch() throws IOException {
+        if (batchBuf == null || batchCount == 0) {
+            return;
+        }
+        batchBuf.flip();
+        writeFully(batchBuf);
+        batchBuf.clear();
+        batchCount = 0;
+    }
+
+    private void writeFully(ByteBuffer buf) throws IOException {
+        int expected = buf.remaining();
+        long start = (metrics == null ? 0L : System.nanoTime());
+        int result;
+        if (nonBlockingSink != null) {
+            result = nonBlockingSink.write(buf);
+        } else {
+            result = sinkChannel.write(buf);
+        }
+        if (metrics != null) {
+            // a blocking write only takes long when the pipe is full
+            long nanos = System.nanoTime() - start;
+            metrics.recordLatency(nanos);
+            metrics.addBlocked(nanos);
+        }
+        if (result != expected) {
+            throw new RuntimeException("SinkChannel failed to write, expected " +
+                    expected + " got " + result);
+        }
+    }
+
     public void sendStopSignal() {
         int done = 4;
         ByteBuffer buf = ByteBuffer.allocate(done);
@@ -290,8 +572,14 @@ public class InputSourceGenerator implements InputSource {
         buf.limit(done);
         buf.putInt(0, done);
         try {
+            flushBatch();
             buf.position(0);
-            sinkChannel.write(buf);
+            if (nonBlockingSink != null) {
+                nonBlockingSink.write(buf);
+            } else {
+                sinkChannel.write(buf);
+            }
+            stopQueued = true;
             if (log.isInfoEnabled()) {
                 log.info(InputSourceGenerator.this.toString() + " --- STOPPED");
             }
@@ -304,43 +592,11 @@ public class InputSourceGenerator implements InputSource {
     // This is the class that will generate the input data and feed them to the source channels
     class InputGenerator implements Runnable {
 
-        private Long seed;
-
-        public InputGenerator() {
-            this(null);
-        }
-
-        public InputGenerator(Long seed) {
-            this.seed = seed;
-        }
-
         // run this generator
         public void run() {
-            ISource hitSource = null;
-            if (seed == null) {
-                hitSource = new RandomSource(rate, numDoms, sourceID, triggerMode);
-            } else {
-                hitSource = new RandomSource(rate, numDoms, sourceID, triggerMode, seed.longValue());
+            while (generateBatch(Integer.MAX_VALUE)) {
+                // keep going until the generator is finished
             }
-            if (minutes < 1){
-                log.info("Will generate " + totalHits + " hits from " + numDoms + " DOMs, at a rate of "
-                         + rate + " per tenth of nanosecond per DOM");
-                while (isRunning && (numHits < totalHits)) {
-                    GenericHit hit = (GenericHit) hitSource.nextPayload();
-                    sendPayload(hit);
-                }
-            } else {
-                long currentTime = System.currentTimeMillis();
-                long duration = minutes * 60 * 1000;
-                log.info("Generator will run for " + minutes + " minutes");
-                long totalTime = currentTime + duration;
-                while(isRunning && (totalTime > currentTime)){
-                    GenericHit hit = (GenericHit) hitSource.nextPayload();
-                    sendPayload(hit);
-                    currentTime = System.currentTimeMillis();
-                }
-            }
-            sendStopSignal();
         }
     }
 
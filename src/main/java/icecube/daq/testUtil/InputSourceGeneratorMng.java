@@ -9,16 +9,60 @@ package icecube.daq.testUtil;
 import icecube.daq.sim.GenericHit;
 
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 /**
+ * Starts and stops a group of input sources.  By default every source runs
+ * its own thread; in pooled mode a fixed set of threads, one per core,
+ * takes turns generating a slice of payloads from each source, and in
+ * virtual-thread mode each source gets a virtual thread (on JDKs which
+ * have them).
+ * <p/>
+ * A pooled thread blocks while its source's pipe is full, so pooled mode
+ * expects the consumer to drain each source independently.
+ *
  * @author artur
  * @version $Id: InputSourceGeneratorMng.java,v 1.3 2005/10/20 00:27:31 artur Exp $
  */
 public class InputSourceGeneratorMng implements InputSourceManager {
 
+    public static final int MODE_THREAD_PER_SOURCE = 0;
+    public static final int MODE_POOLED = 1;
+    public static final int MODE_VIRTUAL_THREADS = 2;
+
+    public static final int DEFAULT_SLICE_SIZE = 256;
+
     protected InputSource[] inputSources;
     private long seconds = 1;
+    private int executionMode = MODE_THREAD_PER_SOURCE;
+    private int poolSize = Runtime.getRuntime().availableProcessors();
+    private int sliceSize = DEFAULT_SLICE_SIZE;
+    private ScheduledExecutorService executor;
+    private SimulationClock clock;
+
+    // single-thread event loop tuning
+    private static final int PENDING_BUFFER_BLEN = 64 * 1024;
+    private static final int PAYLOADS_PER_FILL = 64;
+    private static final int MAX_FILLS_PER_TURN = 4;
+    private static final int CLOCK_CHECK_INTERVAL = 1024;
+
+    // how long a pooled source whose pipe is full waits before retrying
+    private static final long BLOCKED_RETRY_MICROS = 200;
+
+    private Log log = LogFactory.getLog(InputSourceGeneratorMng.class);
 
     public InputSourceGeneratorMng(InputSource[] inputSources) {
         if (inputSources == null || inputSources.length == 0) {
@@ -45,26 +89,384 @@ public class InputSourceGeneratorMng implements InputSourceManager {
         if (isRunning()) {
             return;
         }
+        if (executionMode == MODE_THREAD_PER_SOURCE) {
+            for (int i = 0; i < inputSources.length; i++) {
+                BatchGenerator gen = getBatchGenerator(inputSources[i]);
+                applyClock(gen);
+                if (gen != null) {
+                    gen.setNonBlocking(false);
+                }
+                inputSources[i].startProcessing();
+            }
+            return;
+        }
+
+        List generators = new ArrayList();
         for (int i = 0; i < inputSources.length; i++) {
-            inputSources[i].startProcessing();
+            BatchGenerator gen = getBatchGenerator(inputSources[i]);
+            applyClock(gen);
+            if (gen == null) {
+                // not steppable, so let it run its own thread
+                inputSources[i].startProcessing();
+            } else if (!generators.contains(gen)) {
+                generators.add(gen);
+            }
+        }
+        if (generators.size() == 0) {
+            return;
+        }
+
+        if (executionMode == MODE_VIRTUAL_THREADS) {
+            ThreadFactory factory = getVirtualThreadFactory();
+            if (factory != null) {
+                for (int i = 0; i < generators.size(); i++) {
+                    BatchGenerator gen = (BatchGenerator) generators.get(i);
+                    gen.setNonBlocking(false);
+                    if (gen.prepareProcessing()) {
+                        factory.newThread(new GeneratorLoop(gen)).start();
+                    }
+                }
+                return;
+            }
+            if (log.isWarnEnabled()) {
+                log.warn("Virtual threads are not available; using a pool of " + poolSize + " threads");
+            }
+        }
+
+        executor = Executors.newScheduledThreadPool(poolSize, new PoolThreadFactory());
+        AtomicInteger active = new AtomicInteger(generators.size());
+        for (int i = 0; i < generators.size(); i++) {
+            BatchGenerator gen = (BatchGenerator) generators.get(i);
+            // a full pipe ends the slice rather than pinning a pool thread
+            gen.setNonBlocking(true);
+            if (gen.prepareProcessing()) {
+                executor.execute(new SliceTask(gen, active));
+            } else if (active.decrementAndGet() == 0) {
+                executor.shutdown();
+            }
         }
     }
 
-    public void startSingleThreadProcessing() throws IOException {
-        long currentTime = System.currentTimeMillis();
-        long duration = seconds * 1000;
-        long totalTime = currentTime + duration;
-        while (totalTime > currentTime) {
-            for (int i = 0; i < inputSources.length; i++) {
-                ((InputSourceGenerator) inputSources[i]).generatePayload();
+    /**
+     * set how long startSingleThreadProcessing() runs
+     * @param seconds run time
+     */
+    public void setDuration(long seconds) {
+        this.seconds = seconds;
+    }
+
+    public long getDuration() {
+        return seconds;
+    }
+
+    /**
+     * set the clock used for run durations and hit timestamps.  A wall or
+     * scaled clock is shared by all the sources; with a simulated clock
+     * each threaded source gets its own timeline, while
+     * startSingleThreadProcessing() advances this one by the combined
+     * rate of all its sources.
+     * @param clock clock, or <tt>null</tt> to leave each source's own clock
+     */
+    public void setClock(SimulationClock clock) {
+        this.clock = clock;
+    }
+
+    public SimulationClock getClock() {
+        return clock;
+    }
+
+    /**
+     * choose how the sources are run; takes effect at the next
+     * startProcessing()
+     * @param executionMode MODE_THREAD_PER_SOURCE, MODE_POOLED or MODE_VIRTUAL_THREADS
+     */
+    public void setExecutionMode(int executionMode) {
+        if (executionMode < MODE_THREAD_PER_SOURCE || executionMode > MODE_VIRTUAL_THREADS) {
+            throw new IllegalArgumentException("Bad execution mode " + executionMode);
+        }
+        this.executionMode = executionMode;
+    }
+
+    public int getExecutionMode() {
+        return executionMode;
+    }
+
+    /**
+     * set the number of threads used in pooled mode
+     * @param poolSize number of threads (defaults to the number of cores)
+     */
+    public void setPoolSize(int poolSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1");
+        }
+        this.poolSize = poolSize;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * set the number of payloads a source generates before giving up
+     * its thread to the next source
+     * @param sliceSize payloads per slice
+     */
+    public void setSliceSize(int sliceSize) {
+        if (sliceSize < 1) {
+            throw new IllegalArgumentException("Slice size must be at least 1");
+        }
+        this.sliceSize = sliceSize;
+    }
+
+    public int getSliceSize() {
+        return sliceSize;
+    }
+
+    private static BatchGenerator getBatchGenerator(InputSource source) {
+        if (source instanceof BatchGenerator) {
+            return (BatchGenerator) source;
+        }
+        if (source instanceof EventInputSourceGenerator.EventInputChannelSource) {
+            return ((EventInputSourceGenerator.EventInputChannelSource) source).getGenerator();
+        }
+        return null;
+    }
+
+    private void applyClock(BatchGenerator gen) {
+        if (clock == null || gen == null) {
+            return;
+        }
+        SimulationClock genClock = clock;
+        if (clock.isSimulated()) {
+            genClock = new SimulationClock(SimulationClock.SIMULATED, 1.0);
+        }
+        if (gen instanceof InputSourceGenerator) {
+            ((InputSourceGenerator) gen).setClock(genClock);
+        } else if (gen instanceof EventInputSourceGenerator) {
+            ((EventInputSourceGenerator) gen).setClock(genClock);
+        }
+    }
+
+    // Thread.ofVirtual().factory(), looked up reflectively so this still
+    // builds and runs on JDKs without virtual threads
+    private ThreadFactory getVirtualThreadFactory() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual", new Class[0]);
+            Object builder = ofVirtual.invoke(null, new Object[0]);
+            Class builderClass = Class.forName("java.lang.Thread$Builder");
+            Method name = builderClass.getMethod("name", new Class[] { String.class, Long.TYPE });
+            builder = name.invoke(builder, new Object[] { "InputSourceGenerator-", Long.valueOf(0L) });
+            Method factory = builderClass.getMethod("factory", new Class[0]);
+            return (ThreadFactory) factory.invoke(builder, new Object[0]);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    // names pool threads and lets the JVM exit if they are left idle
+    static class PoolThreadFactory implements ThreadFactory {
+        private AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "InputSourceGeneratorPool-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    // pending output for one source in the single-thread event loop
+    class SinkState {
+        private InputSourceGenerator gen;
+        private Pipe.SinkChannel sink;
+        private ByteBuffer pending = ByteBuffer.allocateDirect(PENDING_BUFFER_BLEN);
+        private ByteBuffer carry;
+        private boolean stopQueued = false;
+        private ReadinessSelector.ReadinessKey key;
+        private PayloadMetrics metrics;
+
+        SinkState(InputSourceGenerator gen, Pipe.SinkChannel sink) {
+            this.gen = gen;
+            this.sink = sink;
+            metrics = gen.getMetrics();
+            gen.setTracer(LatencyTracer.getTracer());
+            pending.flip();
+        }
+
+        // write until the sink is full, refilling the pending buffer with
+        // fresh payloads; returns the number of payloads generated, or -1
+        // once the stop signal has been written
+        int service(long currentTime, boolean expired) throws IOException {
+            int generated = 0;
+            while (true) {
+                if (!pending.hasRemaining()) {
+                    if (stopQueued) {
+                        gen.stopProcessing();
+                        return -1;
+                    }
+                    pending.clear();
+                    if (expired) {
+                        if (carry != null && carry.remaining() + BufferUtil.INT_SIZE <= pending.capacity()) {
+                            pending.put(carry);
+                        }
+                        carry = null;
+                        pending.putInt(BufferUtil.INT_SIZE);
+                        stopQueued = true;
+                    } else {
+                        if (carry != null) {
+                            if (carry.remaining() > pending.capacity()) {
+                                pending = ByteBuffer.allocateDirect(carry.remaining());
+                            }
+                            pending.put(carry);
+                            carry = null;
+                        }
+                        for (int n = 0; n < PAYLOADS_PER_FILL; n++) {
+                            ByteBuffer buf = gen.renderPayload(currentTime);
+                            generated++;
+                            if (buf.remaining() > pending.remaining()) {
+                                // send it with the next fill
+                                carry = buf;
+                                break;
+                            }
+                            pending.put(buf);
+                        }
+                    }
+                    pending.flip();
+                }
+
+                if (metrics == null) {
+                    sink.write(pending);
+                } else {
+                    long start = System.nanoTime();
+                    sink.write(pending);
+                    metrics.recordLatency(System.nanoTime() - start);
+                }
+                if (pending.hasRemaining()) {
+                    return generated;
+                }
+                if (generated >= PAYLOADS_PER_FILL * MAX_FILLS_PER_TURN) {
+                    return generated;
+                }
             }
-            currentTime = System.currentTimeMillis();
         }
-        for (int i = 0; i < inputSources.length; i++) {
-            ((InputSourceGenerator) inputSources[i]).sendStopSignal();
+    }
+
+    // runs a source to completion on its own (virtual) thread
+    class GeneratorLoop implements Runnable {
+        private BatchGenerator gen;
+
+        GeneratorLoop(BatchGenerator gen) {
+            this.gen = gen;
+        }
+
+        public void run() {
+            try {
+                while (gen.generateBatch(sliceSize)) {
+                    // a virtual thread unmounts while its pipe is full
+                }
+            } catch (Exception e) {
+                log.error("Generator failed", e);
+            }
         }
     }
 
+    // generates one slice from a source, then requeues itself behind the
+    // other sources until the source is finished.  Sinks are non-blocking,
+    // so a slice ends early when its consumer falls behind and the source
+    // is retried after a short delay instead of holding a pool thread
+    class SliceTask implements Runnable {
+        private BatchGenerator gen;
+        private AtomicInteger active;
+
+        SliceTask(BatchGenerator gen, AtomicInteger active) {
+            this.gen = gen;
+            this.active = active;
+        }
+
+        public void run() {
+            boolean more;
+            try {
+                more = gen.generateBatch(sliceSize);
+            } catch (Exception e) {
+                log.error("Generator failed", e);
+                more = false;
+            }
+            if (!more) {
+                if (active.decrementAndGet() == 0) {
+                    executor.shutdown();
+                }
+            } else if (gen.isBlocked()) {
+                executor.schedule(this, BLOCKED_RETRY_MICROS, TimeUnit.MICROSECONDS);
+            } else {
+                executor.execute(this);
+            }
+        }
+    }
+
+    /**
+     * drive all the InputSourceGenerators from the calling thread for
+     * <tt>seconds</tt> seconds on the manager's clock (the wall clock
+     * unless setClock() was called), then send their stop signals.  Sinks are
+     * non-blocking and each source keeps its own pending buffer, so only
+     * sources whose consumers can take more data are serviced and a slow
+     * consumer does not hold up the others.
+     *
+     * @throws java.io.IOException
+     */
+    public void startSingleThreadProcessing() throws IOException {
+        SimulationClock loopClock = (clock == null ? new SimulationClock() : clock);
+        ReadinessSelector selector = new ReadinessSelector();
+        int numActive = 0;
+        double hitsPerTick = 0.0;
+        try {
+            for (int i = 0; i < inputSources.length; i++) {
+                InputSourceGenerator gen = (InputSourceGenerator) inputSources[i];
+                hitsPerTick += gen.getRate() * gen.getNumDoms();
+                Pipe.SinkChannel sink = gen.getSinkChannel();
+                sink.configureBlocking(false);
+                SinkState state = new SinkState(gen, sink);
+                state.key = selector.register(sink, SelectionKey.OP_WRITE, state);
+                numActive++;
+            }
+
+            final double ticksPerHit = (hitsPerTick > 0.0 ? 1.0 / hitsPerTick : 0.0);
+            final long deadline = loopClock.currentTimeMillis() + seconds * 1000L;
+            long currentTime = loopClock.currentTimeMillis();
+            boolean expired = false;
+            int sinceClockCheck = 0;
+
+            while (numActive > 0) {
+                long timeout = -1;
+                if (!expired) {
+                    timeout = loopClock.nanosUntil(deadline);
+                }
+                selector.select(timeout);
+                List ready = selector.selectedKeys();
+
+                for (int i = 0; i < ready.size(); i++) {
+                    ReadinessSelector.ReadinessKey key = (ReadinessSelector.ReadinessKey) ready.get(i);
+                    SinkState state = (SinkState) key.attachment();
+                    int n = state.service(currentTime, expired);
+                    if (n < 0) {
+                        key.cancel();
+                        numActive--;
+                    } else {
+                        sinceClockCheck += n;
+                        loopClock.advance(n * ticksPerHit);
+                    }
+                }
+
+                // only read the clock every so often, or when nothing
+                // was ready (which may mean the deadline passed)
+                if (!expired && (sinceClockCheck >= CLOCK_CHECK_INTERVAL || ready.isEmpty())) {
+                    sinceClockCheck = 0;
+                    currentTime = loopClock.currentTimeMillis();
+                    expired = currentTime >= deadline;
+                }
+            }
+        } finally {
+            selector.close();
+        }
+    }
 
     /**
      * stop processing of all InputSources
@@ -95,11 +95,38 @@ public class InputSourceXMLParser {
             String totalHits = totalHitsElement.getText();
             inputSource.setNumOfHits(Long.parseLong(totalHits));
 
+            Element batchSizeElement = inputSourceElement.element("batchSize");
+            if (batchSizeElement != null){
+                ((InputSourceGenerator) inputSource).setBatchSize(Integer.parseInt(batchSizeElement.getText()));
+            }
+            SimulationClock clock = parseClock(inputSourceElement);
+            if (clock != null){
+                ((InputSourceGenerator) inputSource).setClock(clock);
+            }
+
             inputSources.add(inputSource);
         }
         return (InputSource[])inputSources.toArray(new InputSource[inputSources.size()]);
     }
 
+    // optional <clockMode> (wall, simulated or scaled) and <timeScale>
+    private static SimulationClock parseClock(Element inputSourceElement) {
+        Element clockModeElement = inputSourceElement.element("clockMode");
+        if (clockModeElement == null){
+            return null;
+        }
+        int mode = SimulationClock.getMode(clockModeElement.getText().trim());
+        double scale = 1.0;
+        Element timeScaleElement = inputSourceElement.element("timeScale");
+        if (timeScaleElement != null){
+            scale = Double.parseDouble(timeScaleElement.getText());
+        }
+        if (log.isInfoEnabled()) {
+            log.info(" Clock Mode = " + clockModeElement.getText() + " scale = " + scale);
+        }
+        return new SimulationClock(mode, scale);
+    }
+
     public static InputSource[] parseEventGenerator(String xmlFile) throws Exception {
 
             if (log.isInfoEnabled()) {
@@ -143,6 +170,22 @@ public class InputSourceXMLParser {
                 }
 
                 evtGen.setNumOfHits(numGenerated);
+                SimulationClock clock = parseClock(inputSourceElement);
+                if (clock != null){
+                    evtGen.setClock(clock);
+                }
+                Element parallelHubsElement = inputSourceElement.element("parallelHubs");
+                if (parallelHubsElement != null){
+                    evtGen.setParallelHubs(Boolean.valueOf(parallelHubsElement.getText().trim()).booleanValue());
+                }
+                Element corpusSizeElement = inputSourceElement.element("corpusSize");
+                if (corpusSizeElement != null){
+                    evtGen.setCorpusSize(Integer.parseInt(corpusSizeElement.getText().trim()));
+                }
+                Element corpusDirElement = inputSourceElement.element("corpusDir");
+                if (corpusDirElement != null){
+                    evtGen.setCorpusDirectory(corpusDirElement.getText().trim());
+                }
                 InputSource gtInputSource = evtGen.getTriggerRequestSource();
                 inputSources.add(gtInputSource);
 
@@ -195,7 +238,7 @@ public class InputSourceXMLParser {
                 log.info(" File Name = " + fileName);
             }
 
-            InputSource inputSource = new FileInputSource(fileName, Integer.parseInt(sourceIdString));
+            FileInputSource inputSource = new FileInputSource(fileName, Integer.parseInt(sourceIdString));
 
             Element rateElement = inputSourceElement.element("rate");
             if (rateElement != null){
@@ -205,6 +248,16 @@ public class InputSourceXMLParser {
             if (numDomsElement != null){
                 inputSource.setNumDoms(Integer.parseInt(numDomsElement.getText()));
             }
+            // optional payload time range, e.g. a few minutes of a long run
+            Element startTimeElement = inputSourceElement.element("startTime");
+            Element endTimeElement = inputSourceElement.element("endTime");
+            if (startTimeElement != null || endTimeElement != null){
+                long startTime = (startTimeElement == null ? Long.MIN_VALUE :
+                                  Long.parseLong(startTimeElement.getText().trim()));
+                long endTime = (endTimeElement == null ? Long.MAX_VALUE :
+                                Long.parseLong(endTimeElement.getText().trim()));
+                inputSource.setTimeRange(startTime, endTime);
+            }
             inputSources.add(inputSource);
         }
         return (InputSource[])inputSources.toArray(new InputSource[inputSources.size()]);
@@ -0,0 +1,171 @@
+/**
+ * LatencyHistogram
+ *
+ * (c) 2026 IceCube Collaboration
+ */
+package icecube.daq.testUtil;
+
+/**
+ * Fixed-size log-linear histogram of non-negative values, normally
+ * latencies in nanoseconds.  Each power of two is split into 32 buckets,
+ * so any recorded value is reported to within about 3%, and recording is
+ * a couple of shifts and an array increment.
+ * <p/>
+ * This class is not thread-safe; give each thread its own histogram and
+ * <tt>add()</tt> them together when reporting.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private long[] counts = new long[BUCKET_COUNT];
+    private long totalCount;
+    private long min = Long.MAX_VALUE;
+    private long max;
+    private double sum;
+
+    /**
+     * add a value to the histogram
+     * @param value value to record; negative values are recorded as 0
+     */
+    public void record(long value) {
+        record(value, 1);
+    }
+
+    /**
+     * add a value to the histogram several times
+     * @param value value to record; negative values are recorded as 0
+     * @param count number of times to record it
+     */
+    public void record(long value, long count) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[bucketIndex(value)] += count;
+        totalCount += count;
+        sum += (double) value * count;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * add all the values recorded in another histogram to this one
+     * @param other histogram to add
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        if (other.min < min) {
+            min = other.min;
+        }
+        if (other.max > max) {
+            max = other.max;
+        }
+    }
+
+    /**
+     * forget all recorded values
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = 0;
+        }
+        totalCount = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+        sum = 0.0;
+    }
+
+    public long getCount() {
+        return totalCount;
+    }
+
+    public long getMin() {
+        return (totalCount == 0 ? 0 : min);
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return (totalCount == 0 ? 0.0 : sum / totalCount);
+    }
+
+    /**
+     * get the value below which the given percentage of values fall
+     * @param percentile 0.0 to 100.0
+     * @return highest value in the bucket holding that percentile, or 0
+     *         if nothing has been recorded
+     */
+    public long getPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100.0 * totalCount);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(Math.max(bucketHighValue(i), min), max);
+            }
+        }
+        return max;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) & (SUB_BUCKET_COUNT - 1);
+        return (shift + 1) * SUB_BUCKET_COUNT + sub;
+    }
+
+    static long bucketHighValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long sub = index % SUB_BUCKET_COUNT;
+        long high = ((SUB_BUCKET_COUNT + sub + 1) << shift) - 1;
+        return (high < 0 ? Long.MAX_VALUE : high);
+    }
+
+    /**
+     * summarize the histogram, scaling values by <tt>divisor</tt>
+     * @param divisor e.g. 1000 to print nanoseconds as microseconds
+     * @param units unit name appended to each value
+     * @return one-line summary
+     */
+    public String toString(double divisor, String units) {
+        return "n=" + totalCount +
+            " min=" + format(getMin() / divisor) + units +
+            " mean=" + format(getMean() / divisor) + units +
+            " p50=" + format(getPercentile(50.0) / divisor) + units +
+            " p90=" + format(getPercentile(90.0) / divisor) + units +
+            " p99=" + format(getPercentile(99.0) / divisor) + units +
+            " p99.9=" + format(getPercentile(99.9) / divisor) + units +
+            " max=" + format(getMax() / divisor) + units;
+    }
+
+    public String toString() {
+        return toString(1.0, "");
+    }
+
+    private static String format(double value) {
+        return Double.toString(Math.round(value * 10.0) / 10.0);
+    }
+}
@@ -0,0 +1,312 @@
+/**
+ * LatencyTracer
+ *
+ * (c) 2026 IceCube Collaboration
+ */
+package icecube.daq.testUtil;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Measures how long sampled payloads take to get from a generator to an
+ * output destination.
+ * <p/>
+ * A payload is a candidate if a hash of its time (the long at offset 8)
+ * falls in 1 of every <tt>sampleInterval</tt> slots, so senders and
+ * receivers agree on the sample without sharing any state.  Generators
+ * often give a run of payloads the same time, so each source stamps only
+ * the first payload it sends with each candidate time.  A stamp holds a
+ * fingerprint of the payload's bytes, which include the sending source's
+ * ID, so payloads from different sources with the same time neither
+ * share a slot nor match each other's stamps.  The stamp and a
+ * <tt>System.nanoTime()</tt> go into a fixed-size side table indexed by
+ * the time and fingerprint; when a destination sees a candidate payload
+ * whose fingerprint matches the stamp in its slot it takes the stamp back
+ * out and records the difference for the stamp's source.  A stamp
+ * overwritten before its payload arrives is counted as dropped.
+ * <p/>
+ * Each source gets a raw histogram and one corrected for coordinated
+ * omission, which also records the latencies of the samples which would
+ * have been sent while the pipe was stalled.  The expected interval
+ * between samples is set with <tt>setExpectedInterval()</tt> or, by
+ * default, estimated from the source's average send spacing.
+ * <p/>
+ * Tracing is off unless <tt>enable()</tt> is called or the
+ * <tt>testUtil.trace</tt> system property is <tt>true</tt> (with the
+ * interval in <tt>testUtil.traceInterval</tt>).  Components ask for the
+ * tracer when they start and skip tracing if there is none.
+ */
+public class LatencyTracer {
+
+    public static final int DEFAULT_SAMPLE_INTERVAL = 64;
+
+    private static final int TABLE_SIZE = 1 << 16;
+    private static final int TIME_OFFSET = 8;
+
+    private static LatencyTracer tracer;
+
+    static {
+        if (Boolean.getBoolean("testUtil.trace")) {
+            enable(Integer.getInteger("testUtil.traceInterval",
+                                      DEFAULT_SAMPLE_INTERVAL).intValue());
+        }
+    }
+
+    private int sampleMask;
+    private AtomicReferenceArray table = new AtomicReferenceArray(TABLE_SIZE);
+    private Map sources = new HashMap();
+    private StripedCounter dropped = new StripedCounter();
+    private volatile long expectedInterval;
+
+    private LatencyTracer(int sampleInterval) {
+        int interval = 1;
+        while (interval < sampleInterval) {
+            interval <<= 1;
+        }
+        sampleMask = interval - 1;
+    }
+
+    /**
+     * start tracing for components started from now on
+     * @param sampleInterval trace about 1 in this many payloads (rounded
+     *                       up to a power of two)
+     * @return the tracer
+     */
+    public static synchronized LatencyTracer enable(int sampleInterval) {
+        if (sampleInterval < 1) {
+            throw new IllegalArgumentException("Bad sample interval " + sampleInterval);
+        }
+        tracer = new LatencyTracer(sampleInterval);
+        return tracer;
+    }
+
+    /**
+     * stop handing out the tracer
+     */
+    public static synchronized void disable() {
+        tracer = null;
+    }
+
+    /**
+     * get the current tracer
+     * @return tracer, or <tt>null</tt> if tracing is off
+     */
+    public static synchronized LatencyTracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * set the expected time between sampled sends from each source
+     * @param nanos interval, or 0 to estimate it from the send times
+     */
+    public void setExpectedInterval(long nanos) {
+        expectedInterval = nanos;
+    }
+
+    public int getSampleInterval() {
+        return sampleMask + 1;
+    }
+
+    /**
+     * is a payload with this time one of the sampled ones?
+     * @param time payload time
+     * @return <tt>true</tt> if it should be traced
+     */
+    public boolean isSampled(long time) {
+        return ((int) ((time * 0x9E3779B97F4A7C15L) >>> 40) & sampleMask) == 0;
+    }
+
+    /**
+     * note that a payload is being sent; does nothing unless it is sampled
+     * @param sourceID sending source
+     * @param payload payload, positioned at its length word
+     */
+    public void sent(int sourceID, ByteBuffer payload) {
+        if (payload.remaining() < TIME_OFFSET + 8) {
+            return;
+        }
+        long time = payload.getLong(payload.position() + TIME_OFFSET);
+        if (!isSampled(time)) {
+            return;
+        }
+        SourceStats stats = getStats(sourceID);
+        long nanos = System.nanoTime();
+        if (!stats.sent(time, nanos)) {
+            // this source already stamped a payload with this time
+            return;
+        }
+        long print = fingerprint(payload);
+        Stamp stamp = new Stamp(time, print, stats, nanos);
+        if (table.getAndSet(index(time, print), stamp) != null) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * note that a destination has consumed a payload; records its latency
+     * if it was sampled and its stamp is still in the table
+     * @param payload payload, positioned at its length word
+     */
+    public void received(ByteBuffer payload) {
+        if (payload.remaining() < TIME_OFFSET + 8) {
+            return;
+        }
+        long time = payload.getLong(payload.position() + TIME_OFFSET);
+        if (!isSampled(time)) {
+            return;
+        }
+        long print = fingerprint(payload);
+        int idx = index(time, print);
+        Stamp stamp = (Stamp) table.get(idx);
+        if (stamp == null || stamp.time != time || stamp.print != print ||
+            !table.compareAndSet(idx, stamp, null))
+        {
+            return;
+        }
+        stamp.stats.record(System.nanoTime() - stamp.nanos, expectedInterval);
+    }
+
+    /**
+     * get the number of stamps overwritten before their payload arrived
+     * @return dropped samples
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * get the IDs of the sources which have sent sampled payloads
+     * @return sorted list of Integer source IDs
+     */
+    public synchronized List getSourceIDs() {
+        List ids = new ArrayList(sources.keySet());
+        Collections.sort(ids);
+        return ids;
+    }
+
+    /**
+     * get a source's latencies, in nanoseconds
+     * @param sourceID source ID
+     * @param corrected <tt>true</tt> for the coordinated-omission-corrected
+     *                  histogram
+     * @return copy of the histogram (empty if the source is unknown)
+     */
+    public LatencyHistogram getLatency(int sourceID, boolean corrected) {
+        SourceStats stats;
+        synchronized (this) {
+            stats = (SourceStats) sources.get(Integer.valueOf(sourceID));
+        }
+        if (stats == null) {
+            return new LatencyHistogram();
+        }
+        return (corrected ? stats.corrected : stats.raw).snapshot();
+    }
+
+    /**
+     * describe the latencies seen by each source
+     * @return multi-line report
+     */
+    public String report() {
+        StringBuffer buf = new StringBuffer();
+        buf.append("Traced 1 in ").append(getSampleInterval()).append(" payloads, ")
+            .append(getDropped()).append(" dropped\n");
+        List ids = getSourceIDs();
+        for (int i = 0; i < ids.size(); i++) {
+            int id = ((Integer) ids.get(i)).intValue();
+            buf.append("Source ").append(id).append(" raw:       ")
+                .append(getLatency(id, false).toString(1000.0, "us")).append('\n');
+            buf.append("Source ").append(id).append(" corrected: ")
+                .append(getLatency(id, true).toString(1000.0, "us")).append('\n');
+        }
+        return buf.toString();
+    }
+
+    private synchronized SourceStats getStats(int sourceID) {
+        Integer key = Integer.valueOf(sourceID);
+        SourceStats stats = (SourceStats) sources.get(key);
+        if (stats == null) {
+            stats = new SourceStats();
+            sources.put(key, stats);
+        }
+        return stats;
+    }
+
+    private static int index(long time, long print) {
+        long h = (time ^ print) * 0xC2B2AE3D27D4EB4FL;
+        return (int) (h >>> 48) & (TABLE_SIZE - 1);
+    }
+
+    // hash of the payload's bytes, up to the length in its first word
+    private static long fingerprint(ByteBuffer payload) {
+        int pos = payload.position();
+        int end = Math.min(payload.limit(), pos + payload.getInt(pos));
+        long h = 0x9E3779B97F4A7C15L;
+        int i = pos;
+        for (; i + 8 <= end; i += 8) {
+            h = (h ^ payload.getLong(i)) * 0xC2B2AE3D27D4EB4FL;
+        }
+        for (; i < end; i++) {
+            h = (h ^ payload.get(i)) * 0xC2B2AE3D27D4EB4FL;
+        }
+        return h ^ (h >>> 29);
+    }
+
+    // send stamp for one sampled payload
+    static class Stamp {
+        final long time;
+        final long print;
+        final SourceStats stats;
+        final long nanos;
+
+        Stamp(long time, long print, SourceStats stats, long nanos) {
+            this.time = time;
+            this.print = print;
+            this.stats = stats;
+            this.nanos = nanos;
+        }
+    }
+
+    // latencies for one source
+    static class SourceStats {
+        AtomicHistogram raw = new AtomicHistogram();
+        AtomicHistogram corrected = new AtomicHistogram();
+        private long firstNanos;
+        private long lastNanos;
+        private long numSent;
+        private long lastTime;
+
+        // returns false if the last stamped payload had the same time
+        synchronized boolean sent(long time, long nanos) {
+            if (numSent > 0 && time == lastTime) {
+                return false;
+            }
+            if (numSent++ == 0) {
+                firstNanos = nanos;
+            }
+            lastNanos = nanos;
+            lastTime = time;
+            return true;
+        }
+
+        void record(long latency, long expectedInterval) {
+            raw.record(latency);
+            if (expectedInterval <= 0) {
+                expectedInterval = averageInterval();
+            }
+            corrected.recordCorrected(latency, expectedInterval);
+        }
+
+        private synchronized long averageInterval() {
+            if (numSent < 2) {
+                return 0L;
+            }
+            return (lastNanos - firstNanos) / (numSent - 1);
+        }
+    }
+}
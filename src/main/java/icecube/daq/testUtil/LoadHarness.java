@@ -0,0 +1,449 @@
+/**
+ * LoadHarness
+ *
+ * (c) 2026 IceCube Collaboration
+ */
+package icecube.daq.testUtil;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Command-line load generator.  Sources and destinations are built from
+ * the usual XML configuration files, each source is relayed to a
+ * destination (round-robin when there are fewer destinations than
+ * sources), and a throughput and latency summary is printed at the end.
+ * <p/>
+ * Latency is measured from the moment a payload is read from its source
+ * until it has been handed to its destination, so it shows how long
+ * payloads wait on a slow destination.
+ * <pre>
+ * usage: LoadHarness [-g generatorXml] [-e eventGeneratorXml] [-f fileInputXml]
+ *                    [-m mergedFileInputXml] [-d disposerXml] [-w fileWriterXml]
+ *                    [-t seconds] [-n payloads] [-transport pipe|ring]
+ *                    [-metrics on|off] [-trace sampleInterval]
+ * </pre>
+ * Configuration files are loaded from the classpath.  Without <tt>-t</tt>
+ * or <tt>-n</tt> the harness runs until every source sends its stop
+ * signal.  With <tt>-metrics on</tt> every source and destination
+ * publishes its counters over JMX while the harness runs, and they are
+ * printed with the summary.  With <tt>-trace N</tt> about 1 in N
+ * payloads is timed from its generator to its destination, and the
+ * per-source latencies are added to the summary.  With <tt>-m</tt> the
+ * files are merged into one time-ordered stream, which is replayed as
+ * fast as the destinations take it; any <tt>rate</tt> and
+ * <tt>numDoms</tt> set for the files are ignored.
+ */
+public class LoadHarness {
+
+    /** how long to wait for sources to drain after they are stopped */
+    private static final long STOP_GRACE_MILLIS = 10000;
+    private static final long POLL_MILLIS = 100;
+
+    private static final Log log = LogFactory.getLog(LoadHarness.class);
+
+    private List managers = new ArrayList();
+    private List sources = new ArrayList();
+    private List destinations = new ArrayList();
+    private List relays = new ArrayList();
+
+    private long durationMillis = 0;
+    private long payloadLimit = 0;
+    private AtomicLong totalPayloads = new AtomicLong();
+
+    /**
+     * add sources which are driven by a manager
+     * @param mgr manager which starts and stops the sources
+     */
+    public void addSources(InputSourceManager mgr) {
+        managers.add(mgr);
+        InputSource[] list = mgr.getInputSources();
+        for (int i = 0; i < list.length; i++) {
+            sources.add(list[i]);
+        }
+    }
+
+    /**
+     * add destinations
+     * @param list output destinations
+     */
+    public void addDestinations(OutputDestination[] list) {
+        for (int i = 0; i < list.length; i++) {
+            destinations.add(new DestinationLink(list[i]));
+        }
+    }
+
+    /**
+     * stop the sources after this many milliseconds
+     * @param durationMillis run time, or 0 for no limit
+     */
+    public void setDuration(long durationMillis) {
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * stop the sources after this many payloads have been relayed
+     * @param payloadLimit payload count, or 0 for no limit
+     */
+    public void setPayloadLimit(long payloadLimit) {
+        this.payloadLimit = payloadLimit;
+    }
+
+    /**
+     * relay all sources to the destinations until the sources finish or a
+     * limit is reached
+     * @throws IOException if a source or destination could not be started
+     */
+    public void run() throws IOException {
+        if (sources.size() == 0) {
+            throw new IllegalArgumentException("No input sources were configured");
+        }
+        if (destinations.size() == 0) {
+            throw new IllegalArgumentException("No output destinations were configured");
+        }
+
+        for (int i = 0; i < destinations.size(); i++) {
+            ((DestinationLink) destinations.get(i)).start();
+        }
+
+        List threads = new ArrayList();
+        for (int i = 0; i < sources.size(); i++) {
+            InputSource src = (InputSource) sources.get(i);
+            DestinationLink dest = (DestinationLink) destinations.get(i % destinations.size());
+            Relay relay = new Relay(src, dest);
+            relays.add(relay);
+
+            Thread thread = new Thread(relay);
+            thread.setName("LoadHarness-relay-" + src.getSourceID());
+            thread.start();
+            threads.add(thread);
+        }
+
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < managers.size(); i++) {
+            ((InputSourceManager) managers.get(i)).startProcessing();
+        }
+
+        long deadline = (durationMillis > 0 ? startNanos + durationMillis * 1000000L : Long.MAX_VALUE);
+        while (isAlive(threads)) {
+            if (System.nanoTime() >= deadline ||
+                (payloadLimit > 0 && totalPayloads.get() >= payloadLimit))
+            {
+                break;
+            }
+            sleep(POLL_MILLIS);
+        }
+
+        if (isAlive(threads)) {
+            stopSources(threads);
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        for (int i = 0; i < destinations.size(); i++) {
+            ((DestinationLink) destinations.get(i)).awaitStop(STOP_GRACE_MILLIS);
+        }
+
+        printSummary(elapsedNanos);
+    }
+
+    // ask the managers to stop, then close anything still running
+    private void stopSources(List threads) {
+        for (int i = 0; i < managers.size(); i++) {
+            try {
+                ((InputSourceManager) managers.get(i)).stopProcessing();
+            } catch (IOException ioe) {
+                log.error("Couldn't stop input sources", ioe);
+            }
+        }
+
+        long deadline = System.currentTimeMillis() + STOP_GRACE_MILLIS;
+        while (isAlive(threads) && System.currentTimeMillis() < deadline) {
+            sleep(POLL_MILLIS);
+        }
+
+        for (int i = 0; i < relays.size(); i++) {
+            Relay relay = (Relay) relays.get(i);
+            if (((Thread) threads.get(i)).isAlive()) {
+                if (log.isWarnEnabled()) {
+                    log.warn("Source " + relay.source.getSourceID() + " did not stop; closing its channel");
+                }
+                try {
+                    relay.source.getSourceChannel().close();
+                } catch (IOException ioe) {
+                    log.error("Couldn't close source " + relay.source.getSourceID(), ioe);
+                }
+            }
+        }
+        for (int i = 0; i < threads.size(); i++) {
+            try {
+                ((Thread) threads.get(i)).join(STOP_GRACE_MILLIS);
+            } catch (InterruptedException ie) {
+                break;
+            }
+        }
+    }
+
+    private void printSummary(long elapsedNanos) {
+        double secs = elapsedNanos / 1.0E9;
+        long payloads = 0;
+        long bytes = 0;
+        LatencyHistogram latency = new LatencyHistogram();
+
+        System.out.println(pad("Source", 8) + pad("Payloads", 13) + pad("Bytes", 15) + pad("Payloads/s", 13));
+        for (int i = 0; i < relays.size(); i++) {
+            Relay relay = (Relay) relays.get(i);
+            payloads += relay.payloads;
+            bytes += relay.bytes;
+            latency.add(relay.latency);
+            System.out.println(pad(Integer.toString(relay.source.getSourceID()), 8) +
+                               pad(Long.toString(relay.payloads), 13) +
+                               pad(Long.toString(relay.bytes), 15) +
+                               pad(Long.toString(Math.round(relay.payloads / secs)), 13));
+        }
+
+        System.out.println();
+        System.out.println("Elapsed:    " + Math.round(secs * 1000.0) / 1000.0 + " s");
+        System.out.println("Payloads:   " + payloads + " (" + Math.round(payloads / secs) + "/s)");
+        System.out.println("Throughput: " + Math.round(bytes / secs / 1.0E4) / 100.0 + " MB/s");
+        System.out.println("Latency:    " + latency.toString(1000.0, "us"));
+
+        LatencyTracer tracer = LatencyTracer.getTracer();
+        if (tracer != null) {
+            System.out.println();
+            System.out.print(tracer.report());
+        }
+
+        List metrics = MetricsRegistry.getMetrics();
+        if (metrics.size() > 0) {
+            System.out.println();
+            for (int i = 0; i < metrics.size(); i++) {
+                System.out.println(metrics.get(i));
+            }
+        }
+    }
+
+    private static String pad(String str, int width) {
+        StringBuffer buf = new StringBuffer();
+        for (int i = str.length(); i < width; i++) {
+            buf.append(' ');
+        }
+        return buf.append(str).toString();
+    }
+
+    private static boolean isAlive(List threads) {
+        for (int i = 0; i < threads.size(); i++) {
+            if (((Thread) threads.get(i)).isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ie) {
+            // check for completion early
+        }
+    }
+
+    // all the relays feeding one destination share its pipe; each frame
+    // is written whole, and the last relay to finish sends the stop signal
+    class DestinationLink {
+        private OutputDestination output;
+        private WritableByteChannel sink;
+        private int users;
+
+        DestinationLink(OutputDestination output) {
+            this.output = output;
+        }
+
+        void start() throws IOException {
+            SelectableChannel chan = output.getSinkChannel();
+            chan.configureBlocking(true);
+            sink = (WritableByteChannel) chan;
+            output.startProcessing();
+        }
+
+        synchronized void attach() {
+            users++;
+        }
+
+        synchronized void write(ByteBuffer frame) throws IOException {
+            while (frame.hasRemaining()) {
+                sink.write(frame);
+            }
+        }
+
+        synchronized void detach() {
+            if (--users > 0) {
+                return;
+            }
+            ByteBuffer stop = ByteBuffer.allocate(BufferUtil.INT_SIZE);
+            stop.putInt(0, BufferUtil.INT_SIZE);
+            try {
+                write(stop);
+            } catch (IOException ioe) {
+                log.error("Couldn't send stop signal to destination " + output.getSourceID(), ioe);
+            }
+        }
+
+        void awaitStop(long millis) {
+            long deadline = System.currentTimeMillis() + millis;
+            while (output.isRunning() && System.currentTimeMillis() < deadline) {
+                sleep(10);
+            }
+            if (output.isRunning() && log.isWarnEnabled()) {
+                log.warn("Destination " + output.getSourceID() + " is still running");
+            }
+        }
+    }
+
+    // copies frames from one source to its destination
+    class Relay implements Runnable {
+        private InputSource source;
+        private DestinationLink dest;
+        private FrameDecoder decoder = new FrameDecoder();
+        private LatencyHistogram latency = new LatencyHistogram();
+        private volatile long payloads;
+        private volatile long bytes;
+
+        Relay(InputSource source, DestinationLink dest) {
+            this.source = source;
+            this.dest = dest;
+            dest.attach();
+        }
+
+        public void run() {
+            try {
+                SelectableChannel chan = source.getSourceChannel();
+                chan.configureBlocking(true);
+                ReadableByteChannel in = (ReadableByteChannel) chan;
+
+                long readNanos = System.nanoTime();
+                while (true) {
+                    ByteBuffer frame = decoder.nextFrame();
+                    if (frame == null) {
+                        if (decoder.fill(in) < 0) {
+                            break;
+                        }
+                        readNanos = System.nanoTime();
+                        continue;
+                    }
+                    if (FrameDecoder.isStopFrame(frame)) {
+                        break;
+                    }
+
+                    int len = frame.remaining();
+                    dest.write(frame);
+                    latency.record(System.nanoTime() - readNanos);
+                    payloads++;
+                    bytes += len;
+                    totalPayloads.incrementAndGet();
+                }
+            } catch (AsynchronousCloseException ace) {
+                // source was closed while stopping
+            } catch (ClosedChannelException cce) {
+                // source was closed while stopping
+            } catch (IOException ioe) {
+                log.error("Relay for source " + source.getSourceID() + " failed", ioe);
+            } finally {
+                dest.detach();
+            }
+        }
+    }
+
+    private static void usage() {
+        System.err.println("usage: LoadHarness [-g generatorXml] [-e eventGeneratorXml] [-f fileInputXml]");
+        System.err.println("                   [-m mergedFileInputXml] [-d disposerXml] [-w fileWriterXml]");
+        System.err.println("                   [-t seconds] [-n payloads] [-transport pipe|ring]");
+        System.err.println("                   [-metrics on|off] [-trace sampleInterval]");
+        System.exit(1);
+    }
+
+    public static void main(String[] args) {
+        LoadHarness harness = new LoadHarness();
+        try {
+            // pipes are opened as sources are built, so pick the transport first
+            for (int i = 0; i + 1 < args.length; i += 2) {
+                if (args[i].equals("-transport")) {
+                    // the relays use blocking reads and the managers use
+                    // ReadinessSelector, so nothing here needs a Selector
+                    PipeFactory.setSelectorConsumers(false);
+                    PipeFactory.setTransport(args[i + 1]);
+                } else if (args[i].equals("-metrics")) {
+                    MetricsRegistry.setEnabled(args[i + 1].equalsIgnoreCase("on"));
+                } else if (args[i].equals("-trace")) {
+                    LatencyTracer.enable(Integer.parseInt(args[i + 1]));
+                }
+            }
+
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (i + 1 >= args.length) {
+                    usage();
+                }
+                String val = args[++i];
+                if (arg.equals("-g")) {
+                    harness.addSources(new InputSourceGeneratorMng(InputSourceXMLParser.parseGenerator(val)));
+                } else if (arg.equals("-e")) {
+                    harness.addSources(new InputSourceGeneratorMng(InputSourceXMLParser.parseEventGenerator(val)));
+                } else if (arg.equals("-f")) {
+                    InputSource[] fileSources = InputSourceXMLParser.parseFileInput(val);
+                    if (fileSources == null) {
+                        System.exit(1);
+                    }
+                    harness.addSources(new FileInputSourceMng(fileSources));
+                } else if (arg.equals("-m")) {
+                    // one time-ordered stream, under the first file's source ID
+                    InputSource[] fileSources = InputSourceXMLParser.parseFileInput(val);
+                    if (fileSources == null || fileSources.length == 0) {
+                        System.exit(1);
+                    }
+                    for (int j = 0; j < fileSources.length; j++) {
+                        if (fileSources[j].getRate() > 0.0 && fileSources[j].getNumDoms() > 0 &&
+                            log.isWarnEnabled())
+                        {
+                            log.warn("Ignoring the rate of file source " +
+                                     fileSources[j].getSourceID() +
+                                     "; merged streams are replayed unpaced");
+                        }
+                    }
+                    MergingInputSource merged =
+                        new MergingInputSource(fileSources, fileSources[0].getSourceID());
+                    harness.addSources(new FileInputSourceMng(new InputSource[] { merged }));
+                } else if (arg.equals("-d")) {
+                    harness.addDestinations(OutputDestinationXMLParser.parseDisposerOutputDestination(val));
+                } else if (arg.equals("-w")) {
+                    harness.addDestinations(OutputDestinationXMLParser.parseFileOutput(val));
+                } else if (arg.equals("-t")) {
+                    harness.setDuration((long) (Double.parseDouble(val) * 1000.0));
+                } else if (arg.equals("-n")) {
+                    harness.setPayloadLimit(Long.parseLong(val));
+                } else if (arg.equals("-transport") || arg.equals("-metrics") ||
+                           arg.equals("-trace")) {
+                    // already handled
+                } else {
+                    usage();
+                }
+            }
+
+            harness.run();
+            System.exit(0);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/**
+ * MappedPayloadReader
+ *
+ * (c) 2026 IceCube Collaboration
+ */
+package icecube.daq.testUtil;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Walks a file of length-prefixed payloads through memory-mapped segments,
+ * handing out each payload as a read-only slice of the mapping rather than
+ * copying it.  Segments are remapped as the reader moves through the file,
+ * so files larger than 2 GB are handled.
+ * <p/>
+ * A slice stays valid after the reader moves on, but holding on to slices
+ * keeps their segment mapped.
+ */
+public class MappedPayloadReader implements PayloadIterator {
+
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024L * 1024L;
+
+    private static final long PAGE_MASK = ~4095L;
+
+    private final String fileName;
+    private final FileChannel channel;
+    private final boolean ownsChannel;
+    private final long fileSize;
+    private final long segmentSize;
+
+    private MappedByteBuffer segment;
+    private long segmentStart = 0;
+    private long segmentEnd = 0;
+
+    /** file offset of the next payload */
+    private long position = 0;
+    private boolean closed = false;
+
+    private Log log = LogFactory.getLog(MappedPayloadReader.class);
+
+    /**
+     * open a payload file
+     * @param fileName name of the payload file
+     * @throws IOException if the file cannot be opened
+     */
+    public MappedPayloadReader(String fileName) throws IOException {
+        this(fileName, new RandomAccessFile(fileName, "r").getChannel(), true,
+             DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * read payloads from an already open file.  The channel is not closed
+     * by {@link #close()}, so several readers may share it.
+     * @param channel open file channel
+     * @param segmentSize number of bytes mapped at a time
+     * @throws IOException if the file size cannot be read
+     */
+    public MappedPayloadReader(FileChannel channel, long segmentSize) throws IOException {
+        this(null, channel, false, segmentSize);
+    }
+
+    private MappedPayloadReader(String fileName, FileChannel channel, boolean ownsChannel,
+                                long segmentSize) throws IOException {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("Bad segment size " + segmentSize);
+        }
+        this.fileName = fileName;
+        this.channel = channel;
+        this.ownsChannel = ownsChannel;
+        this.segmentSize = segmentSize;
+        fileSize = channel.size();
+    }
+
+    /**
+     * get the next payload
+     * @return read-only slice holding the whole payload, including its
+     *         length prefix, or <tt>null</tt> at the end of the file
+     * @throws IOException if the file cannot be mapped or is corrupt
+     */
+    public ByteBuffer nextPayload() throws IOException {
+        long offset = position;
+        int length = skipPayload();
+        if (length < 0) {
+            return null;
+        }
+        return slice(offset, length);
+    }
+
+    /**
+     * move past the next payload without touching its body
+     * @return length of the payload, or -1 at the end of the file
+     * @throws IOException if the file cannot be mapped or is corrupt
+     */
+    int skipPayload() throws IOException {
+        if (closed) {
+            throw new IOException("Reader for " + getName() + " is closed");
+        }
+        if (position + BufferUtil.INT_SIZE > fileSize) {
+            if (position < fileSize) {
+                log.warn("Ignoring " + (fileSize - position) + " trailing bytes in " + getName());
+                position = fileSize;
+            }
+            return -1;
+        }
+
+        map(position, BufferUtil.INT_SIZE);
+        int length = segment.getInt((int) (position - segmentStart));
+        if (length < BufferUtil.INT_SIZE) {
+            throw new IOException("Bad payload length " + length + " at offset " +
+                                  position + " in " + getName());
+        }
+        if (position + length > fileSize) {
+            log.warn("Ignoring truncated " + length + "-byte payload at offset " +
+                     position + " in " + getName());
+            position = fileSize;
+            return -1;
+        }
+
+        position += length;
+        return length;
+    }
+
+    /**
+     * copy the next payload into a buffer, in the same way as
+     * <tt>PayloadReader.readNextPayload()</tt>
+     * @param buf buffer to fill starting at position 0
+     * @return number of bytes read
+     * @throws EOFException at the end of the file
+     * @throws IOException if the payload does not fit in the buffer
+     */
+    public int readNextPayload(ByteBuffer buf) throws IOException {
+        ByteBuffer payload = nextPayload();
+        if (payload == null) {
+            throw new EOFException("End of " + getName());
+        }
+        if (payload.remaining() > buf.capacity()) {
+            throw new IOException("Payload is " + payload.remaining() +
+                                  " bytes, but buffer only holds " + buf.capacity());
+        }
+        buf.clear();
+        buf.put(payload);
+        return buf.position();
+    }
+
+    /**
+     * get a slice of the file
+     * @param offset file offset of the first byte
+     * @param length number of bytes
+     * @return read-only slice
+     * @throws IOException if the range cannot be mapped
+     */
+    ByteBuffer slice(long offset, int length) throws IOException {
+        map(offset, length);
+        ByteBuffer dup = segment.duplicate();
+        int rel = (int) (offset - segmentStart);
+        dup.limit(rel + length);
+        dup.position(rel);
+        return dup.slice();
+    }
+
+    // make sure the range [offset, offset + length) is in the current segment
+    private void map(long offset, int length) throws IOException {
+        if (segment != null && offset >= segmentStart && offset + length <= segmentEnd) {
+            return;
+        }
+
+        long start = offset & PAGE_MASK;
+        long size = Math.max(segmentSize, (offset - start) + length);
+        size = Math.min(size, fileSize - start);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Payload of " + length + " bytes is too large to map");
+        }
+
+        segment = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        segmentStart = start;
+        segmentEnd = start + size;
+    }
+
+    /**
+     * get the file offset of the next payload
+     * @return file offset
+     */
+    public long position() {
+        return position;
+    }
+
+    /**
+     * move to a payload found with a PayloadFileIndex
+     * @param offset file offset of the start of a payload
+     * @throws IOException if the reader is closed or the offset is
+     *                     outside the file
+     */
+    public void seek(long offset) throws IOException {
+        if (closed) {
+            throw new IOException("Reader for " + getName() + " is closed");
+        }
+        if (offset < 0 || offset > fileSize) {
+            throw new IOException("Cannot seek to " + offset + " in " + fileSize +
+                                  "-byte " + getName());
+        }
+        position = offset;
+    }
+
+    /**
+     * get the size of the file
+     * @return number of bytes
+     */
+    public long size() {
+        return fileSize;
+    }
+
+    /**
+     * release the current mapping and, if this reader opened the file,
+     * close it
+     * @throws IOException if the file cannot be closed
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        segment = null;
+        if (ownsChannel) {
+            channel.close();
+        }
+    }
+
+    private String getName() {
+        return fileName == null ? "payload file" : fileName;
+    }
+}
@@ -0,0 +1,581 @@
+/**
+ * MergingInputSource
+ *
+ * (c) 2026 IceCube Collaboration
+ */
+package icecube.daq.testUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Merges the payloads from several sources into one stream in time order,
+ * the way the splicer sees them, instead of the round-robin order used by
+ * FileInputSourceMng and FileReaderManager.
+ * <p/>
+ * The next payload from each source is kept in a binary heap keyed on the
+ * payload time (the long at offset 8 of the envelope), held in primitive
+ * arrays, so choosing the next payload costs one 8-byte read and
+ * O(log N) comparisons.  Payloads are not decoded.  Each source must
+ * already be in time order; payloads too short to hold a time sort first.
+ * <p/>
+ * Payloads from a FileInputSource, SingleFileInputSource, nested
+ * MergingInputSource or PayloadIterator are read directly, on the merging
+ * thread.  Any other InputSource is read from its pipe; it is started
+ * once, on a thread of its own, so a source whose
+ * <tt>startProcessing()</tt> runs to completion cannot block the merge
+ * while its pipe is full.  Merged payloads are copied into batches of up
+ * to <tt>batchSize</tt> bytes, and each batch goes into the pipe in one
+ * write.  Each call to
+ * <tt>startProcessing()</tt> writes one batch, so it can be driven by
+ * FileInputSourceMng like any other file source.
+ * <p/>
+ * The merged stream is not paced: the sources' own rates are ignored, and
+ * a rate cannot be set on the merge, since FileInputSourceMng would pace
+ * whole batches rather than payloads.
+ */
+public class MergingInputSource implements InputSource {
+
+    public static final int DEFAULT_BATCH_SIZE = 64 * 1024;
+
+    private static final int TIME_OFFSET = 8;
+    private static final int DONE_SIGNAL = 4;
+
+    private Pipe.SinkChannel sinkChannel;
+    private Pipe.SourceChannel sourceChannel;
+    private Pipe pipe;
+    private int sourceID = 0;
+    private boolean done = false;
+    private PayloadMetrics metrics;
+    private boolean metricsRegistered = false;
+    private WaitStrategy waitStrategy = WaitStrategy.PARK;
+
+    private Input[] inputs;
+    private ByteBuffer batch;
+
+    // heap of (time, input) pairs, ordered by time and then input index
+    private long[] heapTimes;
+    private int[] heapInputs;
+    private int heapSize = 0;
+    private boolean primed = false;
+
+    private long numMerged = 0;
+    /** input whose head was last handed out by nextPayload() */
+    private int lastInput = -1;
+
+    private Log log = LogFactory.getLog(MergingInputSource.class);
+
+    /**
+     * merge several input sources
+     * @param sources sources to merge, each in time order
+     * @param sourceID source ID of the merged stream
+     * @throws IOException if the pipe cannot be opened
+     */
+    public MergingInputSource(InputSource[] sources, int sourceID) throws IOException {
+        Input[] in = new Input[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            if (sources[i] instanceof FileInputSource) {
+                in[i] = new FileInput((FileInputSource) sources[i]);
+            } else if (sources[i] instanceof SingleFileInputSource) {
+                in[i] = new SingleFileInput((SingleFileInputSource) sources[i]);
+            } else if (sources[i] instanceof MergingInputSource) {
+                in[i] = new MergeInput((MergingInputSource) sources[i]);
+            } else {
+                in[i] = new PipeInput(sources[i]);
+            }
+        }
+        init(in, sourceID);
+    }
+
+    /**
+     * merge several payload files
+     * @param readers open payload readers, each in time order
+     * @param sourceID source ID of the merged stream
+     * @throws IOException if the pipe cannot be opened
+     */
+    public MergingInputSource(PayloadIterator[] readers, int sourceID) throws IOException {
+        Input[] in = new Input[readers.length];
+        for (int i = 0; i < readers.length; i++) {
+            in[i] = new IteratorInput(readers[i]);
+        }
+        init(in, sourceID);
+    }
+
+    private void init(Input[] inputs, int sourceID) throws IOException {
+        if (inputs.length == 0) {
+            throw new IllegalArgumentException("No sources to merge");
+        }
+        this.inputs = inputs;
+        this.sourceID = sourceID;
+
+        heapTimes = new long[inputs.length];
+        heapInputs = new int[inputs.length];
+        batch = ByteBuffer.allocateDirect(DEFAULT_BATCH_SIZE);
+
+        pipe = PipeFactory.open();
+        sinkChannel = pipe.sink();
+        sourceChannel = pipe.source();
+        sinkChannel.configureBlocking(true);
+        sourceChannel.configureBlocking(false);
+    }
+
+    /**
+     * set the most bytes written into the pipe at once
+     * @param batchSize bytes per batch
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < BufferUtil.INT_SIZE) {
+            throw new IllegalArgumentException("Bad batch size " + batchSize);
+        }
+        batch = ByteBuffer.allocateDirect(batchSize);
+    }
+
+    public int getBatchSize() {
+        return batch.capacity();
+    }
+
+    /**
+     * set how to wait for a piped source which has nothing to read yet
+     * @param waitStrategy wait strategy
+     */
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * get the number of payloads merged so far
+     * @return number of payloads
+     */
+    public long getMergedCount() {
+        return numMerged;
+    }
+
+    public SelectableChannel getSourceChannel() {
+        return sourceChannel;
+    }
+
+    /**
+     * merge the next batch of payloads into the pipe, followed by the stop
+     * signal once every source is exhausted
+     *
+     * @throws IOException if a source or the pipe fails
+     */
+    public void startProcessing() throws IOException {
+        if (done) {
+            return;
+        }
+        if (!metricsRegistered) {
+            metrics = MetricsRegistry.register(MetricsRegistry.INPUT_SOURCE, "MergingInputSource", sourceID);
+            metricsRegistered = true;
+        }
+        if (!primed) {
+            for (int i = 0; i < inputs.length; i++) {
+                push(i);
+            }
+            primed = true;
+        }
+
+        batch.clear();
+        int count = 0;
+        long bytes = 0;
+        while (heapSize > 0) {
+            int idx = heapInputs[0];
+            ByteBuffer payload = inputs[idx].head;
+            int len = payload.remaining();
+            if (len > batch.remaining()) {
+                if (count > 0) {
+                    break;
+                }
+                // too big for a batch, so send it by itself
+                writeFully(payload);
+                count = 1;
+                bytes = len;
+                numMerged++;
+                advance(idx);
+                break;
+            }
+            batch.put(payload);
+            count++;
+            bytes += len;
+            numMerged++;
+            // the head is a slice of the source's buffer, so only fetch
+            // the next one after it has been copied
+            advance(idx);
+        }
+
+        if (batch.position() > 0) {
+            batch.flip();
+            writeFully(batch);
+        }
+        if (metrics != null && count > 0) {
+            metrics.addPayloads(count, bytes);
+        }
+
+        if (heapSize == 0) {
+            done = true;
+            if (log.isInfoEnabled()) {
+                log.info("Merged " + numMerged + " payloads from " + inputs.length +
+                         " sources into source " + sourceID);
+            }
+            ByteBuffer stop = ByteBuffer.allocate(DONE_SIGNAL);
+            stop.putInt(0, DONE_SIGNAL);
+            writeFully(stop);
+        }
+    }
+
+    /**
+     * get the next merged payload directly, bypassing the pipe, when this
+     * source is itself merged by another MergingInputSource.  Must not be
+     * mixed with <tt>startProcessing()</tt>.
+     *
+     * @return next payload, valid until the following call, or
+     *         <tt>null</tt> once every source is exhausted
+     *
+     * @throws IOException if a source fails
+     */
+    ByteBuffer nextPayload() throws IOException {
+        if (done) {
+            return null;
+        }
+        if (!primed) {
+            for (int i = 0; i < inputs.length; i++) {
+                push(i);
+            }
+            primed = true;
+        }
+        // the last payload has been copied by now, so its input may move on
+        if (lastInput >= 0) {
+            advance(lastInput);
+            lastInput = -1;
+        }
+        if (heapSize == 0) {
+            done = true;
+            if (log.isInfoEnabled()) {
+                log.info("Merged " + numMerged + " payloads from " + inputs.length +
+                         " sources into source " + sourceID);
+            }
+            return null;
+        }
+        lastInput = heapInputs[0];
+        numMerged++;
+        return inputs[lastInput].head;
+    }
+
+    // replace the top of the heap with the input's next payload
+    private void advance(int idx) throws IOException {
+        ByteBuffer next = inputs[idx].next();
+        if (next == null) {
+            heapSize--;
+            if (heapSize == 0) {
+                return;
+            }
+            heapTimes[0] = heapTimes[heapSize];
+            heapInputs[0] = heapInputs[heapSize];
+        } else {
+            heapTimes[0] = timeOf(next);
+        }
+        siftDown(0);
+    }
+
+    // add an input's first payload to the heap
+    private void push(int idx) throws IOException {
+        ByteBuffer first = inputs[idx].next();
+        if (first == null) {
+            return;
+        }
+        int pos = heapSize++;
+        long time = timeOf(first);
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            if (!less(time, idx, heapTimes[parent], heapInputs[parent])) {
+                break;
+            }
+            heapTimes[pos] = heapTimes[parent];
+            heapInputs[pos] = heapInputs[parent];
+            pos = parent;
+        }
+        heapTimes[pos] = time;
+        heapInputs[pos] = idx;
+    }
+
+    private void siftDown(int pos) {
+        long time = heapTimes[pos];
+        int idx = heapInputs[pos];
+        int half = heapSize >>> 1;
+        while (pos < half) {
+            int child = 2 * pos + 1;
+            int right = child + 1;
+            if (right < heapSize &&
+                less(heapTimes[right], heapInputs[right], heapTimes[child], heapInputs[child]))
+            {
+                child = right;
+            }
+            if (!less(heapTimes[child], heapInputs[child], time, idx)) {
+                break;
+            }
+            heapTimes[pos] = heapTimes[child];
+            heapInputs[pos] = heapInputs[child];
+            pos = child;
+        }
+        heapTimes[pos] = time;
+        heapInputs[pos] = idx;
+    }
+
+    // ties go to the lower-numbered source, so the merge is stable
+    private static boolean less(long t0, int i0, long t1, int i1) {
+        return t0 < t1 || (t0 == t1 && i0 < i1);
+    }
+
+    private static long timeOf(ByteBuffer payload) {
+        if (payload.remaining() < TIME_OFFSET + 8) {
+            return Long.MIN_VALUE;
+        }
+        return payload.getLong(payload.position() + TIME_OFFSET);
+    }
+
+    private void writeFully(ByteBuffer buf) throws IOException {
+        long start = (metrics == null ? 0L : System.nanoTime());
+        while (buf.hasRemaining()) {
+            sinkChannel.write(buf);
+        }
+        if (metrics != null) {
+            long nanos = System.nanoTime() - start;
+            metrics.recordLatency(nanos);
+            metrics.addBlocked(nanos);
+        }
+    }
+
+    /**
+     * check to see if the input source is running
+     * @return <tt>false</tt> once the stop signal has been written
+     */
+    public boolean isRunning() {
+        return !done;
+    }
+
+    /**
+     * stop every source and close the pipe
+     *
+     * @throws IOException
+     */
+    public void stopProcessing() throws IOException {
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i].close();
+        }
+        sinkChannel.close();
+        done = true;
+    }
+
+    public void setRate(double rate) {
+        throw new UnsupportedOperationException("Merged streams are replayed unpaced");
+    }
+
+    // always 0, so FileInputSourceMng does not pace the batches
+    public double getRate() {
+        return 0.0;
+    }
+
+    public void setNumDoms(int numDoms) {
+        throw new UnsupportedOperationException("Merged streams are replayed unpaced");
+    }
+
+    public int getNumDoms() {
+        return 0;
+    }
+
+    public void setSourceID(int sourceID) {
+        this.sourceID = sourceID;
+    }
+
+    public int getSourceID() {
+        return sourceID;
+    }
+
+    public void setTriggerMode(int triggerMode) {
+        throw new UnsupportedOperationException("setTriggerMode is not supported for this version");
+    }
+
+    public int getTriggerMode() {
+        throw new UnsupportedOperationException("getTriggerMode is not supported for this version");
+    }
+
+    public void setPayloadType(String payloadType) {
+        throw new UnsupportedOperationException("setPayloadType is not supported for this version");
+    }
+
+    public String getPayloadType() {
+        throw new UnsupportedOperationException("getPayloadType is not supported for this version");
+    }
+
+    public void setProcessDuration(int hours) {
+        throw new UnsupportedOperationException("setProcessDuration is not supported for this version");
+    }
+
+    public int getProcessDuration() {
+        throw new UnsupportedOperationException("getProcessDuration is not supported for this version");
+    }
+
+    public void setNumOfHits(long hits) {
+        throw new UnsupportedOperationException("setNumOfHits is not supported for this version");
+    }
+
+    public long getNumOfHits() {
+        throw new UnsupportedOperationException("getNumOfHits is not supported for this version");
+    }
+
+    // one merged stream; head is the payload currently in the heap
+    abstract static class Input {
+        ByteBuffer head;
+
+        // fetch the next payload into head, or null at the end
+        ByteBuffer next() throws IOException {
+            head = fetch();
+            return head;
+        }
+
+        abstract ByteBuffer fetch() throws IOException;
+
+        abstract void close() throws IOException;
+    }
+
+    static class IteratorInput extends Input {
+        private PayloadIterator reader;
+
+        IteratorInput(PayloadIterator reader) {
+            this.reader = reader;
+        }
+
+        ByteBuffer fetch() throws IOException {
+            return reader.nextPayload();
+        }
+
+        void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    static class FileInput extends Input {
+        private FileInputSource source;
+
+        FileInput(FileInputSource source) {
+            this.source = source;
+        }
+
+        ByteBuffer fetch() throws IOException {
+            return source.nextPayload();
+        }
+
+        void close() throws IOException {
+            source.stopProcessing();
+        }
+    }
+
+    static class SingleFileInput extends Input {
+        private SingleFileInputSource source;
+
+        SingleFileInput(SingleFileInputSource source) {
+            this.source = source;
+        }
+
+        ByteBuffer fetch() throws IOException {
+            return source.nextPayload();
+        }
+
+        void close() throws IOException {
+            source.stopProcessing();
+        }
+    }
+
+    static class MergeInput extends Input {
+        private MergingInputSource source;
+
+        MergeInput(MergingInputSource source) {
+            this.source = source;
+        }
+
+        ByteBuffer fetch() throws IOException {
+            return source.nextPayload();
+        }
+
+        void close() throws IOException {
+            source.stopProcessing();
+        }
+    }
+
+    // reads frames from another source's pipe.  The source is started on
+    // a thread of its own, since its startProcessing() may not return
+    // until it has written everything
+    class PipeInput extends Input {
+        private InputSource source;
+        private ReadableByteChannel channel;
+        private FrameDecoder decoder = new FrameDecoder();
+        private boolean started = false;
+        private boolean exhausted = false;
+        private volatile Exception startError;
+
+        PipeInput(InputSource source) {
+            this.source = source;
+            channel = (ReadableByteChannel) source.getSourceChannel();
+        }
+
+        ByteBuffer fetch() throws IOException {
+            if (exhausted) {
+                return null;
+            }
+            int counter = 0;
+            while (true) {
+                ByteBuffer frame = decoder.nextFrame();
+                if (frame != null) {
+                    if (FrameDecoder.isStopFrame(frame)) {
+                        exhausted = true;
+                        return null;
+                    }
+                    return frame;
+                }
+
+                int nRead = decoder.fill(channel);
+                if (nRead < 0) {
+                    exhausted = true;
+                    return null;
+                } else if (nRead == 0) {
+                    if (!started) {
+                        start();
+                    } else if (startError != null) {
+                        IOException ioe = new IOException("Source " + source.getSourceID() +
+                                                          " failed");
+                        ioe.initCause(startError);
+                        throw ioe;
+                    }
+                    counter = waitStrategy.idle(counter);
+                }
+            }
+        }
+
+        private void start() {
+            started = true;
+            Thread thread = new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            source.startProcessing();
+                        } catch (Exception e) {
+                            log.error("Couldn't start source " + source.getSourceID(), e);
+                            startError = e;
+                        }
+                    }
+                });
+            thread.setName("MergingInputSource-" + sourceID + "-start");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void close() throws IOException {
+            source.stopProcessing();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * MetricsRegistry
+ *
+ * (c) 2026 IceCube Collaboration
+ */
+package icecube.daq.testUtil;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Creates the PayloadMetrics for each input source and output destination
+ * and registers them with the platform MBean server as
+ * <tt>icecube.daq.testUtil:type=&lt;type&gt;,name=&lt;name&gt;,sourceID=&lt;id&gt;</tt>,
+ * so live rates can be watched from jconsole during a long run.
+ * <p/>
+ * Components register when they start, so a component which is restarted
+ * or recreated with the same type, name and source ID gets back the
+ * metrics already published under that name, and their counts carry on
+ * from the earlier run (use the MBean's <tt>reset</tt> operation to clear
+ * them).  This keeps the number of MBeans bounded by the number of
+ * distinct components, however many runs a JVM does.
+ * <p/>
+ * Metrics are off unless the <tt>testUtil.metrics</tt> system property is
+ * <tt>true</tt> or <tt>setEnabled(true)</tt> is called before the sources
+ * and destinations are started; when off, <tt>register()</tt> returns
+ * <tt>null</tt> and the components skip all bookkeeping.
+ */
+public class MetricsRegistry {
+
+    public static final String INPUT_SOURCE = "InputSource";
+    public static final String OUTPUT_DESTINATION = "OutputDestination";
+
+    private static final String DOMAIN = "icecube.daq.testUtil";
+
+    private static Log log = LogFactory.getLog(MetricsRegistry.class);
+
+    private static boolean enabled = Boolean.getBoolean("testUtil.metrics");
+    private static List registered = new ArrayList();
+    /** metrics by their base ObjectName */
+    private static Map byName = new HashMap();
+
+    private MetricsRegistry() {
+    }
+
+    public static synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * turn metrics on or off for components started from now on
+     * @param val <tt>true</tt> to collect metrics
+     */
+    public static synchronized void setEnabled(boolean val) {
+        enabled = val;
+    }
+
+    /**
+     * get the metrics for a component, creating and publishing them if no
+     * component with the same type, name and source ID has registered
+     * @param type INPUT_SOURCE or OUTPUT_DESTINATION
+     * @param name component name
+     * @param sourceID component's source ID
+     * @return metrics, or <tt>null</tt> if metrics are disabled
+     */
+    public static synchronized PayloadMetrics register(String type, String name, int sourceID) {
+        if (!enabled) {
+            return null;
+        }
+
+        String baseName = DOMAIN + ":type=" + type + ",name=" + name +
+            ",sourceID=" + sourceID;
+        PayloadMetrics metrics = (PayloadMetrics) byName.get(baseName);
+        if (metrics != null) {
+            if (log.isDebugEnabled()) {
+                log.debug("Reusing metrics " + baseName);
+            }
+            return metrics;
+        }
+
+        metrics = new PayloadMetrics(type, name, sourceID);
+        registered.add(metrics);
+        byName.put(baseName, metrics);
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objName = new ObjectName(baseName);
+            for (int instance = 2; server.isRegistered(objName); instance++) {
+                objName = new ObjectName(baseName + ",instance=" + instance);
+            }
+            server.registerMBean(metrics, objName);
+            if (log.isInfoEnabled()) {
+                log.info("Registered metrics " + objName);
+            }
+        } catch (Exception e) {
+            // still count, even if nobody can see it over JMX
+            if (log.isWarnEnabled()) {
+                log.warn("Cannot register metrics " + baseName, e);
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * get all the metrics created so far
+     * @return list of PayloadMetrics
+     */
+    public static synchronized List getMetrics() {
+        return new ArrayList(registered);
+    }
+}
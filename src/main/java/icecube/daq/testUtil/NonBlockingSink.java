@@ -0,0 +1,94 @@
+/**
+ * NonBlockingSink
+ *
+ * (c) 2026 IceCube Collaboration
+ */
+package icecube.daq.testUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Puts a generator's sink into non-blocking mode and accepts every write,
+ * keeping whatever the pipe would not take in a backlog which goes out
+ * ahead of any later data.  Used when generators are driven a slice at a
+ * time by a pool, so a pool thread ends the slice when a consumer falls
+ * behind instead of waiting on its pipe.
+ * <p/>
+ * The backlog is never more than the data generated since the pipe last
+ * filled, since the generator checks <tt>hasBacklog()</tt> after each
+ * payload (or block of payloads) and stops generating until it drains.
+ */
+class NonBlockingSink implements WritableByteChannel {
+
+    private static final int INITIAL_BACKLOG = 64 * 1024;
+
+    private Pipe.SinkChannel channel;
+    /** unsent bytes lie between position and limit */
+    private ByteBuffer backlog;
+
+    NonBlockingSink(Pipe.SinkChannel channel) throws IOException {
+        this.channel = channel;
+        channel.configureBlocking(false);
+    }
+
+    /**
+     * write as much as the pipe will take and queue the rest
+     * @param src data to send
+     * @return number of bytes accepted, which is all of them
+     * @throws IOException if the pipe is broken
+     */
+    public int write(ByteBuffer src) throws IOException {
+        int len = src.remaining();
+        if (drain()) {
+            channel.write(src);
+            if (!src.hasRemaining()) {
+                return len;
+            }
+        }
+
+        if (backlog == null) {
+            backlog = ByteBuffer.allocate(Math.max(INITIAL_BACKLOG, src.remaining()));
+            backlog.flip();
+        }
+        backlog.compact();
+        if (backlog.remaining() < src.remaining()) {
+            ByteBuffer bigger =
+                ByteBuffer.allocate(Math.max(backlog.capacity() * 2,
+                                             backlog.position() + src.remaining()));
+            backlog.flip();
+            bigger.put(backlog);
+            backlog = bigger;
+        }
+        backlog.put(src);
+        backlog.flip();
+        return len;
+    }
+
+    /**
+     * try to send the backlog
+     * @return <tt>true</tt> if nothing is left in the backlog
+     * @throws IOException if the pipe is broken
+     */
+    boolean drain() throws IOException {
+        if (backlog == null || !backlog.hasRemaining()) {
+            return true;
+        }
+        channel.write(backlog);
+        return !backlog.hasRemaining();
+    }
+
+    boolean hasBacklog() {
+        return backlog != null && backlog.hasRemaining();
+    }
+
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+}
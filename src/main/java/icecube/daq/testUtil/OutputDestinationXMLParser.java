@@ -109,7 +109,32 @@ public class OutputDestinationXMLParser {
                 log.info(" fileName = " + fileNameString);
             }
 
-            OutputDestination outputDest = new FileWriterChannel(fileNameString, Integer.parseInt(sourceIdString));
+            FileWriterChannel outputDest = new FileWriterChannel(fileNameString, Integer.parseInt(sourceIdString));
+
+            Element batchSizeElement = outputDestElement.element("batchSize");
+            if (batchSizeElement != null) {
+                outputDest.setBatchSize(Integer.parseInt(batchSizeElement.getText()));
+            }
+            Element flushIntervalElement = outputDestElement.element("flushInterval");
+            if (flushIntervalElement != null) {
+                outputDest.setFlushInterval(Long.parseLong(flushIntervalElement.getText()));
+            }
+            Element syncElement = outputDestElement.element("sync");
+            if (syncElement != null) {
+                outputDest.setSyncPolicy(GroupCommitWriter.getSyncPolicy(syncElement.getText()));
+            }
+            Element compressElement = outputDestElement.element("compress");
+            if (compressElement != null) {
+                outputDest.setCompressed(Boolean.valueOf(compressElement.getText().trim()).booleanValue());
+            }
+            Element compressBlockSizeElement = outputDestElement.element("compressBlockSize");
+            if (compressBlockSizeElement != null) {
+                outputDest.setCompressedBlockSize(Integer.parseInt(compressBlockSizeElement.getText().trim()));
+            }
+            Element writeIndexElement = outputDestElement.element("writeIndex");
+            if (writeIndexElement != null) {
+                outputDest.setWriteIndex(Boolean.valueOf(writeIndexElement.getText().trim()).booleanValue());
+            }
             outputDests.add(outputDest);
         }
         return (OutputDestination[]) outputDests.toArray(new OutputDestination[outputDests.size()]);
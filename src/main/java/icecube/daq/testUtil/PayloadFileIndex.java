@@ -0,0 +1,408 @@
+/**
+ * PayloadFileIndex
+ *
+ * (c) 2026 IceCube Collaboration
+ */
+package icecube.daq.testUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The offset, length, type, source ID and time of every payload in a
+ * payload file, built in a single pass over the payload headers without
+ * reading payload bodies, or by FileWriterChannel as it writes the file.
+ * <p/>
+ * Each field is kept in its own primitive array, and an index can be
+ * saved next to its payload file (as <tt>&lt;file&gt;.idx</tt>) in the same
+ * columnar layout so later runs load it instead of rescanning the file.
+ * Payloads can be found by ordinal or, with a binary search when the file
+ * is in time order, by time.
+ * <p/>
+ * The type and time come from the payload envelope (offsets 4 and 8).
+ * The source ID is the int at offset 16, which is where hit payloads
+ * keep it; payloads too short to hold a field get -1.
+ */
+public class PayloadFileIndex {
+
+    public static final String SUFFIX = ".idx";
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final int TYPE_OFFSET = 4;
+    private static final int TIME_OFFSET = 8;
+    private static final int SOURCE_ID_OFFSET = 16;
+    private static final int HEADER_BLEN = SOURCE_ID_OFFSET + BufferUtil.INT_SIZE;
+
+    // sidecar file header: magic, version, count, flags, payload file size
+    private static final int MAGIC = 0x50494458;   // "PIDX"
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_BLEN = 24;
+    private static final int FLAG_TIME_ORDERED = 1;
+
+    private static Log log = LogFactory.getLog(PayloadFileIndex.class);
+
+    private long[] offsets = new long[INITIAL_CAPACITY];
+    private int[] lengths = new int[INITIAL_CAPACITY];
+    private int[] types = new int[INITIAL_CAPACITY];
+    private int[] sourceIDs = new int[INITIAL_CAPACITY];
+    private long[] times = new long[INITIAL_CAPACITY];
+    private int count = 0;
+    private boolean timeOrdered = true;
+
+    /**
+     * create an empty index
+     */
+    PayloadFileIndex() {
+    }
+
+    /**
+     * index a payload file
+     * @param channel open payload file
+     * @return new index
+     * @throws IOException if the file cannot be read or is corrupt
+     */
+    public static PayloadFileIndex build(FileChannel channel) throws IOException {
+        PayloadFileIndex index = new PayloadFileIndex();
+
+        MappedPayloadReader reader =
+            new MappedPayloadReader(channel, MappedPayloadReader.DEFAULT_SEGMENT_SIZE);
+        try {
+            while (true) {
+                long offset = reader.position();
+                ByteBuffer payload = reader.nextPayload();
+                if (payload == null) {
+                    break;
+                }
+                index.add(offset, payload);
+            }
+        } finally {
+            reader.close();
+        }
+        return index;
+    }
+
+    /**
+     * get the index for a payload file, loading its sidecar file if that
+     * is up to date, otherwise indexing the file and (if possible) saving
+     * a new sidecar
+     * @param fileName payload file name
+     * @param channel open payload file
+     * @return index
+     * @throws IOException if the payload file cannot be read or is corrupt
+     */
+    public static PayloadFileIndex open(String fileName, FileChannel channel) throws IOException {
+        File dataFile = new File(fileName);
+        File idxFile = new File(fileName + SUFFIX);
+        if (idxFile.exists() && idxFile.lastModified() >= dataFile.lastModified()) {
+            try {
+                return load(idxFile, channel.size());
+            } catch (IOException ioe) {
+                if (log.isWarnEnabled()) {
+                    log.warn("Rebuilding stale or corrupt index " + idxFile + ": " + ioe.getMessage());
+                }
+            }
+        }
+
+        PayloadFileIndex index = build(channel);
+        try {
+            index.save(idxFile);
+        } catch (IOException ioe) {
+            if (log.isWarnEnabled()) {
+                log.warn("Cannot save index " + idxFile, ioe);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * read a saved index
+     * @param idxFile sidecar file
+     * @param dataSize expected size of the payload file
+     * @return index
+     * @throws IOException if the index is unreadable or does not match
+     */
+    public static PayloadFileIndex load(File idxFile, long dataSize) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(idxFile, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.capacity() < FILE_HEADER_BLEN || buf.getInt(0) != MAGIC ||
+                buf.getInt(4) != VERSION) {
+                throw new IOException(idxFile + " is not a payload index");
+            }
+            int num = buf.getInt(8);
+            int flags = buf.getInt(12);
+            long size = buf.getLong(16);
+            if (size != dataSize) {
+                throw new IOException(idxFile + " indexes " + size + " bytes, but file holds " +
+                                      dataSize);
+            }
+            long expected = FILE_HEADER_BLEN + (long) num * (8 + 4 + 4 + 4 + 8);
+            if (num < 0 || buf.capacity() != expected) {
+                throw new IOException(idxFile + " is truncated");
+            }
+
+            PayloadFileIndex index = new PayloadFileIndex();
+            index.grow(Math.max(num, 1));
+            index.count = num;
+            index.timeOrdered = (flags & FLAG_TIME_ORDERED) != 0;
+
+            buf.position(FILE_HEADER_BLEN);
+            buf.asLongBuffer().get(index.offsets, 0, num);
+            buf.position(buf.position() + num * 8);
+            buf.asIntBuffer().get(index.lengths, 0, num);
+            buf.position(buf.position() + num * 4);
+            buf.asIntBuffer().get(index.types, 0, num);
+            buf.position(buf.position() + num * 4);
+            buf.asIntBuffer().get(index.sourceIDs, 0, num);
+            buf.position(buf.position() + num * 4);
+            buf.asLongBuffer().get(index.times, 0, num);
+            return index;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * write the index to a sidecar file
+     * @param idxFile sidecar file, replaced atomically
+     * @throws IOException if the file cannot be written
+     */
+    public void save(File idxFile) throws IOException {
+        int blen = FILE_HEADER_BLEN + count * (8 + 4 + 4 + 4 + 8);
+        ByteBuffer buf = ByteBuffer.allocate(blen);
+        buf.putInt(MAGIC);
+        buf.putInt(VERSION);
+        buf.putInt(count);
+        buf.putInt(timeOrdered ? FLAG_TIME_ORDERED : 0);
+        buf.putLong(count == 0 ? 0L : offsets[count - 1] + lengths[count - 1]);
+
+        LongBuffer longs = buf.asLongBuffer();
+        longs.put(offsets, 0, count);
+        buf.position(buf.position() + count * 8);
+        IntBuffer ints = buf.asIntBuffer();
+        ints.put(lengths, 0, count);
+        ints.put(types, 0, count);
+        ints.put(sourceIDs, 0, count);
+        buf.position(buf.position() + count * 12);
+        buf.asLongBuffer().put(times, 0, count);
+        buf.clear();
+
+        File tmp = new File(idxFile.getPath() + ".tmp");
+        RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            channel.truncate(0);
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        } finally {
+            raf.close();
+        }
+        if (!tmp.renameTo(idxFile)) {
+            idxFile.delete();
+            if (!tmp.renameTo(idxFile)) {
+                throw new IOException("Cannot rename " + tmp + " to " + idxFile);
+            }
+        }
+    }
+
+    /**
+     * add a payload's header fields to the index
+     * @param offset file offset of the payload
+     * @param payload whole payload, positioned at its length word
+     */
+    void add(long offset, ByteBuffer payload) {
+        int pos = payload.position();
+        int length = payload.remaining();
+        int type = -1;
+        long time = -1L;
+        int sourceID = -1;
+        if (length >= TIME_OFFSET) {
+            type = payload.getInt(pos + TYPE_OFFSET);
+        }
+        if (length >= SOURCE_ID_OFFSET) {
+            time = payload.getLong(pos + TIME_OFFSET);
+        }
+        if (length >= HEADER_BLEN) {
+            sourceID = payload.getInt(pos + SOURCE_ID_OFFSET);
+        }
+        add(offset, length, type, sourceID, time);
+    }
+
+    // append an entry, growing the columns as needed
+    void add(long offset, int length, int type, int sourceID, long time) {
+        if (count == offsets.length) {
+            grow(count * 2);
+        }
+        if (count > 0 && time < times[count - 1]) {
+            timeOrdered = false;
+        }
+        offsets[count] = offset;
+        lengths[count] = length;
+        types[count] = type;
+        sourceIDs[count] = sourceID;
+        times[count] = time;
+        count++;
+    }
+
+    private void grow(int newCapacity) {
+        if (newCapacity <= offsets.length) {
+            return;
+        }
+
+        long[] newOffsets = new long[newCapacity];
+        System.arraycopy(offsets, 0, newOffsets, 0, count);
+        offsets = newOffsets;
+
+        int[] newLengths = new int[newCapacity];
+        System.arraycopy(lengths, 0, newLengths, 0, count);
+        lengths = newLengths;
+
+        int[] newTypes = new int[newCapacity];
+        System.arraycopy(types, 0, newTypes, 0, count);
+        types = newTypes;
+
+        int[] newSourceIDs = new int[newCapacity];
+        System.arraycopy(sourceIDs, 0, newSourceIDs, 0, count);
+        sourceIDs = newSourceIDs;
+
+        long[] newTimes = new long[newCapacity];
+        System.arraycopy(times, 0, newTimes, 0, count);
+        times = newTimes;
+    }
+
+    /**
+     * get the number of payloads in the file
+     * @return number of payloads
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * are the payload times in non-decreasing order?
+     * @return <tt>true</tt> if time searches can use a binary search
+     */
+    public boolean isTimeOrdered() {
+        return timeOrdered;
+    }
+
+    /**
+     * get the file offset of a payload
+     * @param ordinal payload number, starting at 0
+     * @return file offset
+     */
+    public long getOffset(int ordinal) {
+        checkOrdinal(ordinal);
+        return offsets[ordinal];
+    }
+
+    /**
+     * get the length of a payload
+     * @param ordinal payload number, starting at 0
+     * @return length in bytes, including the length prefix
+     */
+    public int getLength(int ordinal) {
+        checkOrdinal(ordinal);
+        return lengths[ordinal];
+    }
+
+    /**
+     * get the type of a payload
+     * @param ordinal payload number, starting at 0
+     * @return payload type from the envelope
+     */
+    public int getType(int ordinal) {
+        checkOrdinal(ordinal);
+        return types[ordinal];
+    }
+
+    /**
+     * get the source ID of a payload
+     * @param ordinal payload number, starting at 0
+     * @return source ID
+     */
+    public int getSourceID(int ordinal) {
+        checkOrdinal(ordinal);
+        return sourceIDs[ordinal];
+    }
+
+    /**
+     * get the time of a payload
+     * @param ordinal payload number, starting at 0
+     * @return payload time from the envelope
+     */
+    public long getTime(int ordinal) {
+        checkOrdinal(ordinal);
+        return times[ordinal];
+    }
+
+    /**
+     * find the first payload at or after a time
+     * @param time payload time
+     * @return ordinal, or <tt>size()</tt> if every payload is earlier
+     */
+    public int findTime(long time) {
+        if (!timeOrdered) {
+            for (int i = 0; i < count; i++) {
+                if (times[i] >= time) {
+                    return i;
+                }
+            }
+            return count;
+        }
+
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] < time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * find the payloads with <tt>firstTime &lt;= time &lt; lastTime</tt>;
+     * if the file is not in time order this is the run from the first
+     * payload at or after <tt>firstTime</tt> to the next payload at or
+     * after <tt>lastTime</tt>
+     * @param firstTime start of the range
+     * @param lastTime end of the range (exclusive)
+     * @return first ordinal and the ordinal after the last, which are
+     *         equal if no payloads are in the range
+     */
+    public int[] findTimeRange(long firstTime, long lastTime) {
+        int first = findTime(firstTime);
+        int end;
+        if (timeOrdered) {
+            end = Math.max(first, findTime(lastTime));
+        } else {
+            end = first;
+            while (end < count && times[end] < lastTime) {
+                end++;
+            }
+        }
+        return new int[] { first, end };
+    }
+
+    private void checkOrdinal(int ordinal) {
+        if (ordinal < 0 || ordinal >= count) {
+            throw new IndexOutOfBoundsException("Bad payload ordinal " + ordinal +
+                                                " (index holds " + count + ")");
+        }
+    }
+}
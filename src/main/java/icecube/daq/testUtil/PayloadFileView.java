@@ -0,0 +1,72 @@
+/**
+ * PayloadFileView
+ *
+ * (c) 2026 IceCube Collaboration
+ */
+package icecube.daq.testUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A virtual "sub-file" made of every <tt>stride</tt>-th payload of a
+ * payload file, starting at payload <tt>first</tt>.  Payloads are handed
+ * out as mapped slices of the original file, so splitting a file between
+ * several readers needs no temporary copies.
+ */
+public class PayloadFileView implements PayloadIterator {
+
+    private final PayloadFileIndex index;
+    private final MappedPayloadReader reader;
+    private final int stride;
+    private int next;
+
+    /**
+     * create a view of a payload file
+     * @param channel open payload file, which may be shared between views
+     * @param index index of the payload file
+     * @param first ordinal of the first payload in this view
+     * @param stride distance between successive payloads in this view
+     * @throws IOException if the file cannot be read
+     */
+    public PayloadFileView(FileChannel channel, PayloadFileIndex index, int first, int stride)
+        throws IOException
+    {
+        if (first < 0 || stride < 1) {
+            throw new IllegalArgumentException("Bad view first " + first + " stride " + stride);
+        }
+        this.index = index;
+        this.stride = stride;
+        next = first;
+        reader = new MappedPayloadReader(channel, MappedPayloadReader.DEFAULT_SEGMENT_SIZE);
+    }
+
+    public ByteBuffer nextPayload() throws IOException {
+        if (next >= index.size()) {
+            return null;
+        }
+        ByteBuffer payload = reader.slice(index.getOffset(next), index.getLength(next));
+        next += stride;
+        return payload;
+    }
+
+    /**
+     * get the number of payloads left in this view
+     * @return number of payloads
+     */
+    public int remaining() {
+        if (next >= index.size()) {
+            return 0;
+        }
+        return (index.size() - next + stride - 1) / stride;
+    }
+
+    /**
+     * release the current mapping; the shared file is left open
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        reader.close();
+    }
+}
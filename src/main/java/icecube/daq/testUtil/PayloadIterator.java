@@ -0,0 +1,29 @@
+/**
+ * PayloadIterator
+ *
+ * (c) 2026 IceCube Collaboration
+ */
+package icecube.daq.testUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A sequence of length-prefixed payloads.
+ */
+public interface PayloadIterator {
+
+    /**
+     * get the next payload
+     * @return buffer holding the whole payload, including its length
+     *         prefix, or <tt>null</tt> when there are no more payloads
+     * @throws IOException if the payloads cannot be read
+     */
+    public ByteBuffer nextPayload() throws IOException;
+
+    /**
+     * release any resources held by this iterator
+     * @throws IOException
+     */
+    public void close() throws IOException;
+}
@@ -0,0 +1,177 @@
+/**
+ * PayloadMetrics
+ *
+ * (c) 2026 IceCube Collaboration
+ */
+package icecube.daq.testUtil;
+
+/**
+ * Counts the payloads and bytes passing through one input source or
+ * output destination, along with
+ * <ul>
+ * <li>the latency of each channel operation: writes into the pipe for a
+ *     source, reads from the pipe for a destination
+ * <li>the time spent blocked on whatever is downstream: a full pipe for
+ *     a source, the file (or other sink) for a destination
+ * </ul>
+ * Everything can be updated from any thread without locking.  Instances
+ * come from MetricsRegistry, which publishes them over JMX.
+ */
+public class PayloadMetrics implements PayloadMetricsMBean {
+
+    private static final long MIN_SAMPLE_NANOS = 1000000000L;
+
+    private String type;
+    private String name;
+    private int sourceID;
+
+    private StripedCounter payloads = new StripedCounter();
+    private StripedCounter bytes = new StripedCounter();
+    private StripedCounter blockedNanos = new StripedCounter();
+    private AtomicHistogram latency = new AtomicHistogram();
+
+    private long startNanos = System.nanoTime();
+
+    // previous sample, for the live rates
+    private long sampleNanos = startNanos;
+    private long samplePayloads;
+    private long sampleBytes;
+    private double payloadRate;
+    private double byteRate;
+
+    PayloadMetrics(String type, String name, int sourceID) {
+        this.type = type;
+        this.name = name;
+        this.sourceID = sourceID;
+    }
+
+    /**
+     * count payloads which have been sent or received
+     * @param numPayloads number of payloads
+     * @param numBytes total length of those payloads
+     */
+    public void addPayloads(long numPayloads, long numBytes) {
+        payloads.add(numPayloads);
+        bytes.add(numBytes);
+    }
+
+    /**
+     * record how long one channel read or write took
+     * @param nanos elapsed nanoseconds
+     */
+    public void recordLatency(long nanos) {
+        latency.record(nanos);
+    }
+
+    /**
+     * add time spent waiting on the downstream component
+     * @param nanos elapsed nanoseconds
+     */
+    public void addBlocked(long nanos) {
+        blockedNanos.add(nanos);
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getSourceID() {
+        return sourceID;
+    }
+
+    public long getPayloads() {
+        return payloads.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public double getPayloadRate() {
+        return sample()[0];
+    }
+
+    public double getByteRate() {
+        return sample()[1];
+    }
+
+    public double getAveragePayloadRate() {
+        long elapsed = System.nanoTime() - startNanos;
+        if (elapsed <= 0) {
+            return 0.0;
+        }
+        return payloads.sum() * 1.0e9 / elapsed;
+    }
+
+    public long getBlockedMillis() {
+        return blockedNanos.sum() / 1000000L;
+    }
+
+    public long getLatencyCount() {
+        return latency.snapshot().getCount();
+    }
+
+    public double getLatencyMeanMicros() {
+        return latency.snapshot().getMean() / 1000.0;
+    }
+
+    public double getLatency50Micros() {
+        return latency.snapshot().getPercentile(50.0) / 1000.0;
+    }
+
+    public double getLatency99Micros() {
+        return latency.snapshot().getPercentile(99.0) / 1000.0;
+    }
+
+    public double getLatencyMaxMicros() {
+        return latency.snapshot().getMax() / 1000.0;
+    }
+
+    /**
+     * get a copy of the latency histogram
+     * @return latencies in nanoseconds
+     */
+    public LatencyHistogram getLatency() {
+        return latency.snapshot();
+    }
+
+    public synchronized void reset() {
+        payloads.reset();
+        bytes.reset();
+        blockedNanos.reset();
+        latency.reset();
+        startNanos = System.nanoTime();
+        sampleNanos = startNanos;
+        samplePayloads = 0;
+        sampleBytes = 0;
+        payloadRate = 0.0;
+        byteRate = 0.0;
+    }
+
+    // take a new sample if the last one is old enough, so the payload and
+    // byte rates read by a JMX console cover the same interval
+    private synchronized double[] sample() {
+        long now = System.nanoTime();
+        long elapsed = now - sampleNanos;
+        if (elapsed >= MIN_SAMPLE_NANOS) {
+            long curPayloads = payloads.sum();
+            long curBytes = bytes.sum();
+            payloadRate = (curPayloads - samplePayloads) * 1.0e9 / elapsed;
+            byteRate = (curBytes - sampleBytes) * 1.0e9 / elapsed;
+            samplePayloads = curPayloads;
+            sampleBytes = curBytes;
+            sampleNanos = now;
+        }
+        return new double[] { payloadRate, byteRate };
+    }
+
+    public String toString() {
+        return type + " " + name + " ID " + sourceID + ": " + getPayloads() +
+            " payloads, " + getBytes() + " bytes, blocked " + getBlockedMillis() +
+            " ms, latency " + latency.snapshot().toString(1000.0, "us");
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * PayloadMetricsMBean
+ *
+ * (c) 2026 IceCube Collaboration
+ */
+package icecube.daq.testUtil;
+
+/**
+ * JMX view of the traffic through one input source or output destination.
+ */
+public interface PayloadMetricsMBean {
+
+    /**
+     * @return "InputSource" or "OutputDestination"
+     */
+    String getType();
+
+    /**
+     * @return name of the component, e.g. its class name
+     */
+    String getName();
+
+    int getSourceID();
+
+    long getPayloads();
+
+    long getBytes();
+
+    /**
+     * @return payloads per second since the previous sample (samples are
+     *         at least a second apart)
+     */
+    double getPayloadRate();
+
+    /**
+     * @return bytes per second since the previous sample
+     */
+    double getByteRate();
+
+    /**
+     * @return payloads per second since the metrics were created or reset
+     */
+    double getAveragePayloadRate();
+
+    /**
+     * @return milliseconds spent waiting on the component downstream
+     */
+    long getBlockedMillis();
+
+    long getLatencyCount();
+
+    double getLatencyMeanMicros();
+
+    double getLatency50Micros();
+
+    double getLatency99Micros();
+
+    double getLatencyMaxMicros();
+
+    /**
+     * zero all counters
+     */
+    void reset();
+}
@@ -0,0 +1,133 @@
+/**
+ * PayloadPacer
+ *
+ * (c) 2026 IceCube Collaboration
+ */
+package icecube.daq.testUtil;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces a stream to a fixed rate of permits per second, where a permit
+ * may stand for a payload or a byte.  The schedule is kept in absolute
+ * nanoseconds, so time lost to a late wakeup is made up on the following
+ * permits instead of accumulating as drift.  Up to <tt>burst</tt> permits
+ * may be taken back to back after the stream falls behind; anything
+ * beyond that is forgiven rather than replayed as a flood.
+ * <p/>
+ * Waiting parks the thread until shortly before the deadline and then
+ * spins, giving microsecond accuracy without burning a core.
+ */
+public class PayloadPacer {
+
+    /** spin instead of parking for waits shorter than this */
+    private static final long SPIN_THRESHOLD_NANOS = 50000L;
+
+    private final double permitsPerSecond;
+    private final double intervalNanos;
+    private final double toleranceNanos;
+    private final long baseNanos;
+
+    /** theoretical arrival time of the next permit, relative to baseNanos */
+    private double nextNanos;
+
+    /**
+     * create a pacer
+     * @param permitsPerSecond target rate
+     * @param burst number of permits which may be taken back to back
+     */
+    public PayloadPacer(double permitsPerSecond, long burst) {
+        if (!(permitsPerSecond > 0.0)) {
+            throw new IllegalArgumentException("Bad pacing rate " + permitsPerSecond);
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("Burst must be at least 1");
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        intervalNanos = 1.0E9 / permitsPerSecond;
+        toleranceNanos = (burst - 1) * intervalNanos;
+        baseNanos = System.nanoTime();
+        nextNanos = 0.0;
+    }
+
+    /**
+     * build a pacer from the <tt>rate</tt> and <tt>numDoms</tt> settings
+     * of a file input source, which send <tt>numDoms</tt> payloads every
+     * <tt>rate</tt> milliseconds
+     * @param rate milliseconds per group of payloads
+     * @param numDoms payloads per group
+     * @return new pacer, or <tt>null</tt> if the source is not paced
+     */
+    public static PayloadPacer fromRateAndNumDoms(double rate, int numDoms) {
+        if (numDoms <= 0 || !(rate > 0.0)) {
+            return null;
+        }
+        return new PayloadPacer(numDoms * 1000.0 / rate, numDoms);
+    }
+
+    /**
+     * take permits if they are available now
+     * @param permits number of payloads or bytes
+     * @return <tt>true</tt> if the permits were taken
+     */
+    public boolean tryAcquire(long permits) {
+        double now = System.nanoTime() - baseNanos;
+        if (nextNanos - toleranceNanos > now) {
+            return false;
+        }
+        nextNanos = Math.max(nextNanos, now - toleranceNanos) + permits * intervalNanos;
+        return true;
+    }
+
+    /**
+     * wait until permits are available, then take them
+     * @param permits number of payloads or bytes
+     */
+    public void acquire(long permits) {
+        while (!tryAcquire(permits)) {
+            waitUntil(nextAvailableNanos());
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * get the time at which the next permit becomes available
+     * @return <tt>System.nanoTime()</tt> value
+     */
+    public long nextAvailableNanos() {
+        return baseNanos + (long) Math.ceil(nextNanos - toleranceNanos);
+    }
+
+    /**
+     * get the target rate
+     * @return permits per second
+     */
+    public double getRate() {
+        return permitsPerSecond;
+    }
+
+    /**
+     * wait until <tt>System.nanoTime()</tt> reaches a deadline,
+     * parking for most of the wait and spinning for the rest
+     * @param deadlineNanos <tt>System.nanoTime()</tt> value to wait for
+     */
+    public static void waitUntil(long deadlineNanos) {
+        long remaining = deadlineNanos - System.nanoTime();
+        while (remaining > SPIN_THRESHOLD_NANOS) {
+            LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NANOS);
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            remaining = deadlineNanos - System.nanoTime();
+        }
+        while (remaining > 0) {
+            remaining = deadlineNanos - System.nanoTime();
+        }
+    }
+
+    public String toString() {
+        return "PayloadPacer[" + permitsPerSecond + "/s]";
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * PayloadReaders
+ *
+ * (c) 2026 IceCube Collaboration
+ */
+package icecube.daq.testUtil;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Opens the right PayloadIterator for a payload file, so replay code does
+ * not need to know whether a file was written compressed.
+ */
+public class PayloadReaders {
+
+    private PayloadReaders() {
+    }
+
+    /**
+     * is this a block-compressed payload file?
+     * @param fileName name of the file
+     * @return <tt>true</tt> if it was written by CompressedPayloadWriter
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isCompressed(String fileName) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(fileName, "r");
+        try {
+            return CompressedPayloadReader.isCompressed(raf.getChannel());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * open a payload file
+     * @param fileName name of the file
+     * @return a CompressedPayloadReader for compressed files, otherwise a
+     *         MappedPayloadReader
+     * @throws IOException if the file cannot be opened
+     */
+    public static PayloadIterator open(String fileName) throws IOException {
+        if (isCompressed(fileName)) {
+            return new CompressedPayloadReader(fileName);
+        }
+        return new MappedPayloadReader(fileName);
+    }
+}
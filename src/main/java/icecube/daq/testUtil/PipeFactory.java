@@ -0,0 +1,142 @@
+/**
+ * PipeFactory
+ *
+ * (c) 2026 IceCube Collaboration
+ */
+package icecube.daq.testUtil;
+
+import java.io.IOException;
+import java.nio.channels.Pipe;
+
+/**
+ * Creates the pipes which connect input sources and output destinations
+ * to the component under test.  The transport is chosen with the
+ * <tt>icecube.daq.testUtil.transport</tt> system property ("pipe" for
+ * <tt>java.nio.channels.Pipe</tt>, "ring" for {@link RingBufferPipe}) or
+ * with {@link #setTransport(String)}.  Ring buffers are sized by
+ * <tt>icecube.daq.testUtil.ringCapacity</tt> and wait according to
+ * <tt>icecube.daq.testUtil.ringWait</tt> ("spin", "yield" or "park").
+ * <p/>
+ * Ring buffer channels cannot be registered with a
+ * <tt>java.nio.channels.Selector</tt>, so the ring transport is refused
+ * unless <tt>icecube.daq.testUtil.selectorConsumers</tt> is <tt>false</tt>
+ * (or {@link #setSelectorConsumers(boolean)} is called), which declares
+ * that every consumer of the pipes reads them with blocking reads or
+ * polls them through {@link ReadinessSelector}.
+ */
+public final class PipeFactory {
+
+    public static final String TRANSPORT_PROPERTY = "icecube.daq.testUtil.transport";
+    public static final String RING_CAPACITY_PROPERTY = "icecube.daq.testUtil.ringCapacity";
+    public static final String RING_WAIT_PROPERTY = "icecube.daq.testUtil.ringWait";
+    public static final String SELECTOR_CONSUMERS_PROPERTY =
+        "icecube.daq.testUtil.selectorConsumers";
+
+    public static final String TRANSPORT_PIPE = "pipe";
+    public static final String TRANSPORT_RING = "ring";
+
+    private static String transport =
+        System.getProperty(TRANSPORT_PROPERTY, TRANSPORT_PIPE);
+    private static int ringCapacity =
+        Integer.getInteger(RING_CAPACITY_PROPERTY, RingBufferPipe.DEFAULT_CAPACITY).intValue();
+    private static WaitStrategy ringWait =
+        WaitStrategy.getStrategy(System.getProperty(RING_WAIT_PROPERTY, "park"));
+    private static boolean selectorConsumers =
+        !"false".equalsIgnoreCase(System.getProperty(SELECTOR_CONSUMERS_PROPERTY, "true"));
+
+    private PipeFactory() {}
+
+    /**
+     * open a new pipe using the configured transport
+     * @return new pipe
+     * @throws IOException if a system pipe could not be created
+     * @throws IllegalStateException if ring buffers are selected but
+     *                               consumers may use a Selector
+     */
+    public static Pipe open() throws IOException {
+        if (isRingTransport()) {
+            checkRingAllowed();
+            return new RingBufferPipe(ringCapacity, ringWait);
+        }
+        return Pipe.open();
+    }
+
+    /**
+     * check whether new pipes are ring buffers
+     * @return <tt>true</tt> if the ring buffer transport is selected
+     */
+    public static boolean isRingTransport() {
+        return TRANSPORT_RING.equalsIgnoreCase(transport);
+    }
+
+    /**
+     * get the name of the configured transport
+     * @return "pipe" or "ring"
+     */
+    public static String getTransport() {
+        return transport;
+    }
+
+    /**
+     * select the transport used for pipes created after this call
+     * @param name "pipe" or "ring"
+     */
+    public static void setTransport(String name) {
+        if (!TRANSPORT_PIPE.equalsIgnoreCase(name) &&
+            !TRANSPORT_RING.equalsIgnoreCase(name))
+        {
+            throw new IllegalArgumentException("Unknown transport '" + name + "'");
+        }
+        if (TRANSPORT_RING.equalsIgnoreCase(name)) {
+            checkRingAllowed();
+        }
+        transport = name;
+    }
+
+    /**
+     * declare whether anything reading or writing the pipes registers them
+     * with a <tt>java.nio.channels.Selector</tt>
+     * @param val <tt>false</tt> if every consumer uses blocking I/O or
+     *            ReadinessSelector, which allows the ring transport
+     */
+    public static void setSelectorConsumers(boolean val) {
+        selectorConsumers = val;
+    }
+
+    public static boolean hasSelectorConsumers() {
+        return selectorConsumers;
+    }
+
+    private static void checkRingAllowed() {
+        if (selectorConsumers) {
+            throw new IllegalStateException("Ring buffer pipes cannot be registered with a" +
+                                            " java.nio Selector; set " +
+                                            SELECTOR_CONSUMERS_PROPERTY + "=false (or call" +
+                                            " setSelectorConsumers(false)) if every consumer" +
+                                            " uses blocking reads or ReadinessSelector, or" +
+                                            " use the \"" + TRANSPORT_PIPE + "\" transport");
+        }
+    }
+
+    /**
+     * set the size of ring buffers created after this call
+     * @param capacity size in bytes
+     */
+    public static void setRingCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Bad ring buffer capacity " + capacity);
+        }
+        ringCapacity = capacity;
+    }
+
+    /**
+     * set the wait strategy of ring buffers created after this call
+     * @param strategy wait strategy
+     */
+    public static void setRingWaitStrategy(WaitStrategy strategy) {
+        if (strategy == null) {
+            throw new IllegalArgumentException("Wait strategy cannot be null");
+        }
+        ringWait = strategy;
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * ReadinessSelector
+ *
+ * (c) 2026 IceCube Collaboration
+ */
+package icecube.daq.testUtil;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A {@link Selector} work-alike which also handles {@link RingBufferPipe}
+ * channels.  System channels are registered with a real selector; ring
+ * buffer channels, which cannot be, are polled.
+ * <p/>
+ * Like a <tt>Selector</tt>, this is meant to be used from a single thread.
+ */
+public class ReadinessSelector {
+
+    private Selector selector;
+    private int numSystemKeys = 0;
+    private List polledKeys = new ArrayList();
+    private List selectedKeys = new ArrayList();
+
+    /**
+     * register a channel.  The channel must already be non-blocking.
+     * @param channel channel to watch
+     * @param ops <tt>SelectionKey.OP_READ</tt> and/or <tt>OP_WRITE</tt>
+     * @param attachment object returned by {@link ReadinessKey#attachment()}
+     * @return new key
+     * @throws IOException if the channel cannot be registered
+     */
+    public ReadinessKey register(SelectableChannel channel, int ops, Object attachment)
+        throws IOException
+    {
+        ReadinessKey key = new ReadinessKey(channel, ops, attachment);
+        if (isPolled(channel)) {
+            polledKeys.add(key);
+        } else {
+            if (selector == null) {
+                selector = Selector.open();
+            }
+            key.selectionKey = channel.register(selector, ops, key);
+            numSystemKeys++;
+        }
+        return key;
+    }
+
+    private static boolean isPolled(SelectableChannel channel) {
+        return channel instanceof RingBufferPipe.RingSourceChannel ||
+            channel instanceof RingBufferPipe.RingSinkChannel;
+    }
+
+    /**
+     * wait for at least one registered channel to become ready
+     * @param timeoutNanos maximum time to wait, 0 to return immediately,
+     *                     or a negative value to wait forever
+     * @return number of ready keys
+     * @throws IOException if the underlying selector fails
+     */
+    public int select(long timeoutNanos) throws IOException {
+        selectedKeys.clear();
+
+        final long deadline = System.nanoTime() + timeoutNanos;
+        int counter = 0;
+        while (true) {
+            if (numSystemKeys > 0) {
+                if (!polledKeys.isEmpty() || timeoutNanos == 0) {
+                    selector.selectNow();
+                } else if (timeoutNanos < 0) {
+                    selector.select();
+                } else {
+                    selector.select(Math.max(1L, (timeoutNanos + 999999L) / 1000000L));
+                }
+
+                Iterator iter = selector.selectedKeys().iterator();
+                while (iter.hasNext()) {
+                    SelectionKey sk = (SelectionKey) iter.next();
+                    iter.remove();
+                    if (sk.isValid()) {
+                        selectedKeys.add(sk.attachment());
+                    }
+                }
+            }
+
+            for (int i = 0; i < polledKeys.size(); i++) {
+                ReadinessKey key = (ReadinessKey) polledKeys.get(i);
+                if (key.isPolledReady()) {
+                    selectedKeys.add(key);
+                }
+            }
+
+            if (!selectedKeys.isEmpty() || timeoutNanos == 0 || polledKeys.isEmpty()) {
+                return selectedKeys.size();
+            }
+            if (timeoutNanos > 0 && System.nanoTime() - deadline >= 0) {
+                return 0;
+            }
+            counter = WaitStrategy.PARK.idle(counter);
+        }
+    }
+
+    /**
+     * get the keys found ready by the last {@link #select(long)}
+     * @return list of ReadinessKey objects
+     */
+    public List selectedKeys() {
+        return selectedKeys;
+    }
+
+    /**
+     * cancel all keys and close the underlying selector
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        polledKeys.clear();
+        selectedKeys.clear();
+        if (selector != null) {
+            selector.close();
+            selector = null;
+        }
+        numSystemKeys = 0;
+    }
+
+    /**
+     * A channel's registration with a ReadinessSelector.
+     */
+    public class ReadinessKey {
+
+        private SelectableChannel channel;
+        private int ops;
+        private Object attachment;
+        private SelectionKey selectionKey;
+
+        ReadinessKey(SelectableChannel channel, int ops, Object attachment) {
+            this.channel = channel;
+            this.ops = ops;
+            this.attachment = attachment;
+        }
+
+        public SelectableChannel channel() {
+            return channel;
+        }
+
+        public Object attachment() {
+            return attachment;
+        }
+
+        public int interestOps() {
+            return ops;
+        }
+
+        /**
+         * change the operations this key waits for
+         * @param ops new interest set, 0 to ignore the channel for now
+         */
+        public void interestOps(int ops) {
+            this.ops = ops;
+            if (selectionKey != null) {
+                selectionKey.interestOps(ops);
+            }
+        }
+
+        /**
+         * stop watching the channel
+         */
+        public void cancel() {
+            if (selectionKey != null) {
+                if (selectionKey.isValid()) {
+                    selectionKey.cancel();
+                    numSystemKeys--;
+                }
+            } else {
+                polledKeys.remove(this);
+            }
+            ops = 0;
+        }
+
+        boolean isPolledReady() {
+            if ((ops & SelectionKey.OP_READ) != 0 &&
+                ((RingBufferPipe.RingSourceChannel) channel).isReadable())
+            {
+                return true;
+            }
+            if ((ops & SelectionKey.OP_WRITE) != 0 &&
+                ((RingBufferPipe.RingSinkChannel) channel).isWritable())
+            {
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,356 @@
+/**
+ * RingBufferPipe
+ *
+ * (c) 2026 IceCube Collaboration
+ */
+package icecube.daq.testUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.Pipe;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An in-process replacement for {@link Pipe} built on a single-producer,
+ * single-consumer ring buffer in direct memory.  Moving a payload through it
+ * costs one memory copy in and one out, with no system calls and no file
+ * descriptors.
+ * <p/>
+ * The channels are real <tt>Pipe.SourceChannel</tt> and
+ * <tt>Pipe.SinkChannel</tt> objects, so they can be handed out from
+ * <tt>getSourceChannel()</tt> and <tt>getSinkChannel()</tt> unchanged, but
+ * they cannot be registered with a system {@link java.nio.channels.Selector}
+ * (registering one throws <tt>IllegalSelectorException</tt>).  Poll them
+ * with {@link ReadinessSelector}, or with
+ * {@link RingSourceChannel#isReadable()} and
+ * {@link RingSinkChannel#isWritable()}, instead; PipeFactory will only
+ * create them once told that no consumer uses a Selector.
+ * <p/>
+ * Exactly one thread may write to the sink and one thread may read from the
+ * source at any time.
+ */
+public class RingBufferPipe extends Pipe {
+
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+
+    private final ByteBuffer ring;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+
+    /** total bytes consumed by the reader */
+    private final AtomicLong head = new AtomicLong();
+    /** total bytes published by the writer */
+    private final AtomicLong tail = new AtomicLong();
+
+    private volatile boolean sinkClosed = false;
+    private volatile boolean sourceClosed = false;
+    private volatile Thread waitingReader;
+    private volatile Thread waitingWriter;
+
+    private final RingSourceChannel source;
+    private final RingSinkChannel sink;
+
+    /**
+     * create a ring buffer pipe with the default capacity
+     * which parks waiting threads
+     */
+    public RingBufferPipe() {
+        this(DEFAULT_CAPACITY, WaitStrategy.PARK);
+    }
+
+    /**
+     * create a ring buffer pipe
+     * @param capacity buffer size in bytes, rounded up to a power of two
+     * @param waitStrategy what blocked readers and writers do while waiting
+     */
+    public RingBufferPipe(int capacity, WaitStrategy waitStrategy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Bad ring buffer capacity " + capacity);
+        }
+        if (waitStrategy == null) {
+            throw new IllegalArgumentException("Wait strategy cannot be null");
+        }
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        ring = ByteBuffer.allocateDirect(size);
+        mask = size - 1;
+        this.waitStrategy = waitStrategy;
+
+        source = new RingSourceChannel(SelectorProvider.provider());
+        sink = new RingSinkChannel(SelectorProvider.provider());
+    }
+
+    public SourceChannel source() {
+        return source;
+    }
+
+    public SinkChannel sink() {
+        return sink;
+    }
+
+    /**
+     * get the size of the ring in bytes
+     * @return capacity
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    private static void signal(Thread thread) {
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * The reading end of a ring buffer pipe.
+     */
+    public class RingSourceChannel extends Pipe.SourceChannel {
+
+        /** reader-private view of the ring, so reads never allocate */
+        private final ByteBuffer view = ring.duplicate();
+
+        RingSourceChannel(SelectorProvider provider) {
+            super(provider);
+        }
+
+        /**
+         * get the number of bytes which can be read without blocking
+         * @return number of bytes
+         */
+        public int available() {
+            return (int) (tail.get() - head.get());
+        }
+
+        /**
+         * check whether a read would return without blocking
+         * @return <tt>true</tt> if data is available or the sink is closed
+         */
+        public boolean isReadable() {
+            return available() > 0 || sinkClosed;
+        }
+
+        public int read(ByteBuffer dst) throws IOException {
+            if (!isOpen()) {
+                throw new ClosedChannelException();
+            }
+            if (!dst.hasRemaining()) {
+                return 0;
+            }
+
+            long rd = head.get();
+            long avail = tail.get() - rd;
+            if (avail == 0) {
+                if (sinkClosed) {
+                    // re-check in case the last bytes landed before the close
+                    avail = tail.get() - rd;
+                    if (avail == 0) {
+                        return -1;
+                    }
+                } else if (!isBlocking()) {
+                    return 0;
+                } else {
+                    avail = awaitData(rd);
+                    if (avail < 0) {
+                        return -1;
+                    }
+                }
+            }
+
+            int total = 0;
+            while (avail > 0 && dst.hasRemaining()) {
+                int idx = (int) (rd & mask);
+                int n = (int) Math.min(avail, Math.min(dst.remaining(), mask + 1 - idx));
+                view.limit(idx + n);
+                view.position(idx);
+                dst.put(view);
+                rd += n;
+                avail -= n;
+                total += n;
+            }
+            // a full volatile write, so the check of waitingWriter below
+            // cannot be reordered ahead of it and miss a writer which
+            // has just started waiting
+            head.set(rd);
+            signal(waitingWriter);
+            return total;
+        }
+
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            long total = 0;
+            for (int i = offset; i < offset + length; i++) {
+                if (!dsts[i].hasRemaining()) {
+                    continue;
+                }
+                int n = read(dsts[i]);
+                if (n < 0) {
+                    return total == 0 ? -1 : total;
+                }
+                total += n;
+                if (dsts[i].hasRemaining()) {
+                    break;
+                }
+            }
+            return total;
+        }
+
+        public long read(ByteBuffer[] dsts) throws IOException {
+            return read(dsts, 0, dsts.length);
+        }
+
+        // block until there is something to read, returning -1 on end of stream
+        private long awaitData(long rd) throws IOException {
+            boolean completed = false;
+            begin();
+            try {
+                int counter = 0;
+                waitingReader = Thread.currentThread();
+                while (true) {
+                    long avail = tail.get() - rd;
+                    if (avail > 0) {
+                        completed = true;
+                        return avail;
+                    }
+                    if (sinkClosed) {
+                        avail = tail.get() - rd;
+                        completed = true;
+                        return avail > 0 ? avail : -1;
+                    }
+                    if (!isOpen()) {
+                        return -1;
+                    }
+                    counter = waitStrategy.idle(counter);
+                }
+            } finally {
+                waitingReader = null;
+                end(completed);
+            }
+        }
+
+        protected void implCloseSelectableChannel() throws IOException {
+            sourceClosed = true;
+            signal(waitingWriter);
+        }
+
+        protected void implConfigureBlocking(boolean block) throws IOException {
+            // nothing to do, blocking is handled in read()
+        }
+    }
+
+    /**
+     * The writing end of a ring buffer pipe.
+     */
+    public class RingSinkChannel extends Pipe.SinkChannel {
+
+        /** writer-private view of the ring, so writes never allocate */
+        private final ByteBuffer view = ring.duplicate();
+
+        RingSinkChannel(SelectorProvider provider) {
+            super(provider);
+        }
+
+        /**
+         * get the number of bytes which can be written without blocking
+         * @return number of bytes
+         */
+        public int remaining() {
+            return (int) (mask + 1 - (tail.get() - head.get()));
+        }
+
+        /**
+         * check whether a write would return without blocking
+         * @return <tt>true</tt> if there is free space or the source is closed
+         */
+        public boolean isWritable() {
+            return remaining() > 0 || sourceClosed;
+        }
+
+        public int write(ByteBuffer src) throws IOException {
+            if (!isOpen()) {
+                throw new ClosedChannelException();
+            }
+
+            boolean blocking = isBlocking();
+            long wr = tail.get();
+            int total = 0;
+            boolean began = false;
+            int counter = 0;
+            try {
+                while (src.hasRemaining()) {
+                    if (sourceClosed) {
+                        throw new IOException("Broken pipe");
+                    }
+
+                    long free = mask + 1 - (wr - head.get());
+                    if (free == 0) {
+                        if (!blocking) {
+                            break;
+                        }
+                        if (!began) {
+                            begin();
+                            began = true;
+                            waitingWriter = Thread.currentThread();
+                        }
+                        if (!isOpen()) {
+                            throw new ClosedChannelException();
+                        }
+                        counter = waitStrategy.idle(counter);
+                        continue;
+                    }
+                    counter = 0;
+
+                    int idx = (int) (wr & mask);
+                    int n = (int) Math.min(free, Math.min(src.remaining(), mask + 1 - idx));
+                    int lim = src.limit();
+                    src.limit(src.position() + n);
+                    view.limit(idx + n);
+                    view.position(idx);
+                    view.put(src);
+                    src.limit(lim);
+
+                    wr += n;
+                    total += n;
+                    // full volatile write; see read()
+                    tail.set(wr);
+                    signal(waitingReader);
+                }
+            } finally {
+                if (began) {
+                    waitingWriter = null;
+                    end(!src.hasRemaining());
+                }
+            }
+            return total;
+        }
+
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            long total = 0;
+            for (int i = offset; i < offset + length; i++) {
+                total += write(srcs[i]);
+                if (srcs[i].hasRemaining()) {
+                    break;
+                }
+            }
+            return total;
+        }
+
+        public long write(ByteBuffer[] srcs) throws IOException {
+            return write(srcs, 0, srcs.length);
+        }
+
+        protected void implCloseSelectableChannel() throws IOException {
+            sinkClosed = true;
+            signal(waitingReader);
+        }
+
+        protected void implConfigureBlocking(boolean block) throws IOException {
+            // nothing to do, blocking is handled in write()
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * SimulationClock
+ *
+ * (c) 2026 IceCube Collaboration
+ */
+package icecube.daq.testUtil;
+
+/**
+ * Time source for the generators.
+ * <ul>
+ * <li><tt>WALL</tt> reads the system clock, as the generators always have.
+ * <li><tt>SIMULATED</tt> starts at 0 and only moves when a generator calls
+ *     <tt>advance()</tt> with the DAQ time (in 0.1 ns ticks) spanned by
+ *     the payloads it produced, so generated data does not depend on how
+ *     fast the machine is and a run with a fixed seed is repeatable.
+ * <li><tt>SCALED</tt> runs <tt>scale</tt> times faster than the system clock.
+ * </ul>
+ * Durations and hit timestamps are taken from the clock, so an hour of
+ * simulated or scaled time can be generated in a fraction of an hour.
+ */
+public class SimulationClock {
+
+    public static final int WALL = 0;
+    public static final int SIMULATED = 1;
+    public static final int SCALED = 2;
+
+    /** DAQ time is counted in tenths of a nanosecond */
+    public static final long TICKS_PER_MILLI = 10000000L;
+
+    private int mode;
+    private double scale;
+    private long startMillis;
+    private long startNanos;
+    private double ticks;
+
+    /**
+     * create a wall clock
+     */
+    public SimulationClock() {
+        this(WALL, 1.0);
+    }
+
+    /**
+     * create a clock
+     * @param mode WALL, SIMULATED or SCALED
+     * @param scale speed-up factor for SCALED mode (ignored otherwise)
+     */
+    public SimulationClock(int mode, double scale) {
+        if (mode < WALL || mode > SCALED) {
+            throw new IllegalArgumentException("Bad clock mode " + mode);
+        }
+        if (mode == SCALED && !(scale > 0.0)) {
+            throw new IllegalArgumentException("Bad time scale " + scale);
+        }
+        this.mode = mode;
+        this.scale = scale;
+        if (mode != SIMULATED) {
+            startMillis = System.currentTimeMillis();
+        }
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * translate a clock mode name from a configuration file
+     * @param name "wall", "simulated" or "scaled"
+     * @return clock mode
+     */
+    public static int getMode(String name) {
+        if (name == null || name.equalsIgnoreCase("wall")) {
+            return WALL;
+        } else if (name.equalsIgnoreCase("simulated")) {
+            return SIMULATED;
+        } else if (name.equalsIgnoreCase("scaled")) {
+            return SCALED;
+        }
+        throw new IllegalArgumentException("Unknown clock mode \"" + name + "\"");
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    public double getScale() {
+        return scale;
+    }
+
+    public boolean isSimulated() {
+        return mode == SIMULATED;
+    }
+
+    /**
+     * get the current time in milliseconds
+     * @return time in milliseconds
+     */
+    public long currentTimeMillis() {
+        switch (mode) {
+            case SIMULATED:
+                return (long) (getTicks() / TICKS_PER_MILLI);
+            case SCALED:
+                return startMillis + (long) ((System.nanoTime() - startNanos) * scale / 1000000.0);
+            default:
+                return System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * get the DAQ time elapsed since the clock was created
+     * @return time in 0.1 ns ticks
+     */
+    public long currentTicks() {
+        switch (mode) {
+            case SIMULATED:
+                return (long) getTicks();
+            case SCALED:
+                return (long) ((System.nanoTime() - startNanos) * scale * 10.0);
+            default:
+                return (System.nanoTime() - startNanos) * 10L;
+        }
+    }
+
+    /**
+     * move simulated time forward; does nothing for the other modes
+     * @param deltaTicks DAQ time in 0.1 ns ticks
+     */
+    public void advance(double deltaTicks) {
+        if (mode == SIMULATED && deltaTicks > 0.0) {
+            synchronized (this) {
+                ticks += deltaTicks;
+            }
+        }
+    }
+
+    /**
+     * get the real time left before the clock reaches <tt>millis</tt>
+     * @param millis clock time in milliseconds
+     * @return nanoseconds to wait (0 if already reached), or -1 for a
+     *         simulated clock, which only moves when it is advanced
+     */
+    public long nanosUntil(long millis) {
+        if (mode == SIMULATED) {
+            return -1L;
+        }
+        long left = millis - currentTimeMillis();
+        if (left <= 0L) {
+            return 0L;
+        }
+        return (long) (left * 1000000.0 / (mode == SCALED ? scale : 1.0));
+    }
+
+    /**
+     * get the DAQ time between consecutive hits from a source
+     * @param rate hits per tick per DOM, as used by the generators
+     * @param numDoms number of DOMs
+     * @return ticks per hit
+     */
+    public static double ticksPerHit(double rate, int numDoms) {
+        if (!(rate > 0.0) || numDoms <= 0) {
+            return 0.0;
+        }
+        return 1.0 / (rate * numDoms);
+    }
+
+    private synchronized double getTicks() {
+        return ticks;
+    }
+
+    public String toString() {
+        switch (mode) {
+            case SIMULATED:
+                return "simulated clock";
+            case SCALED:
+                return "clock scaled x" + scale;
+            default:
+                return "wall clock";
+        }
+    }
+}
@@ -6,21 +6,23 @@
  */
 package icecube.daq.testUtil;
 
-import icecube.daq.payload.PayloadReader;
-
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.Pipe;
 import java.nio.ByteBuffer;
 import java.io.IOException;
-import java.io.EOFException;
 import java.io.File;
-import java.util.List;
-import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
+ * Replays a payload file through a single channel.  A reader thread
+ * prefetches payloads into a bounded queue of pooled buffers while the
+ * calling thread drains the queue into the pipe, optionally paced to a
+ * fixed number of payloads per second.
+ *
  * @author artur
  * @version $Id: SingleFileInputSource.java,v 1.4 2005/12/01 02:30:05 artur Exp $
  */
@@ -30,9 +32,16 @@ public class SingleFileInputSource implements InputSource {
     private Pipe.SourceChannel sourceChannel;
     private Pipe pipe;
     private int sourceID = 0;
-    private boolean done = false;
-    private PayloadReader payloadReader;
-    private List buffers = new ArrayList();
+    private volatile boolean done = false;
+    private PayloadIterator payloadReader;
+    private double rate = 0.0;
+    private int prefetchDepth = DEFAULT_PREFETCH_DEPTH;
+    private BlockingQueue freeBuffers;
+    private BlockingQueue filledBuffers;
+    private volatile Exception readerError;
+    private PayloadMetrics metrics;
+
+    public static final int DEFAULT_PREFETCH_DEPTH = 256;
 
     private final int DONE_SIGNAL = 4;
 
@@ -43,76 +52,187 @@ public class SingleFileInputSource implements InputSource {
         if (!(new File(sourceFileName).exists())) {
             throw new IllegalArgumentException(sourceFileName + " does not exist.");
         }
-        payloadReader = new PayloadReader(sourceFileName);
-        payloadReader.open();
-        pipe = Pipe.open();
+        payloadReader = PayloadReaders.open(sourceFileName);
+        pipe = PipeFactory.open();
         sinkChannel = pipe.sink();
         sourceChannel = pipe.source();
         sinkChannel.configureBlocking(true);
         sourceChannel.configureBlocking(false);
 
         this.sourceID = sourceID;
-        //bufferCache = new ByteBufferCache(1024);
     }
 
     /**
-     * start processing data by reading them from the source and feeding the other end of the pipe
+     * start processing data by reading them from the source and feeding the other end of the pipe.
+     * This returns once the whole file and the stop signal have been written.
      *
      * @throws java.io.IOException
      */
     public void startProcessing() throws IOException {
-        int header = 0;
-        int bytesRead = 1;
-        while (bytesRead > 0 && !done) {
-            ByteBuffer buf = ByteBuffer.allocate(32000);
-            //ByteBuffer buf = bufferCache.acquireBuffer(1024);
+        if (done) {
+            return;
+        }
+
+        freeBuffers = new ArrayBlockingQueue(prefetchDepth);
+        for (int i = 0; i < prefetchDepth; i++) {
+            freeBuffers.add(ByteBuffer.allocate(BufferUtil.DEFAULT_BUFFER_BLEN));
+        }
+        filledBuffers = new ArrayBlockingQueue(prefetchDepth + 1);
+
+        if (metrics == null) {
+            metrics = MetricsRegistry.register(MetricsRegistry.INPUT_SOURCE, "SingleFileInputSource", sourceID);
+        }
+
+        Thread thread = new Thread(new PrefetchReader());
+        thread.setName("SingleFileInputSource-" + sourceID);
+        thread.start();
+
+        PayloadPacer pacer = null;
+        if (rate > 0.0) {
+            pacer = new PayloadPacer(rate, 1);
+        }
+
+        while (true) {
+            ByteBuffer buf;
             try {
-                payloadReader.readNextPayload(buf);
-                buf.clear();
-                header = buf.getInt(0);
-                buf.limit(header);
-            } catch (EOFException eofEx) {
-                buf.clear();
-                buf.limit(DONE_SIGNAL);
-                buf.putInt(0, DONE_SIGNAL);
-                done = true;
-                if (log.isInfoEnabled()) {
-                    log.info("END OF FILE from Channel " + sourceID);
+                buf = (ByteBuffer) filledBuffers.take();
+            } catch (InterruptedException ie) {
+                throw new RuntimeException("Interrupted while waiting for payloads", ie);
+            }
+            if (done) {
+                // stopProcessing() was called
+                return;
+            }
+
+            if (pacer != null) {
+                pacer.acquire(1);
+            }
+            int header = buf.remaining();
+            try {
+                long start = (metrics == null ? 0L : System.nanoTime());
+                int nWrite = sinkChannel.write(buf);
+                if (metrics != null) {
+                    long nanos = System.nanoTime() - start;
+                    metrics.recordLatency(nanos);
+                    metrics.addBlocked(nanos);
+                    if (header != DONE_SIGNAL) {
+                        metrics.addPayloads(1, nWrite);
+                    }
                 }
-                try {
-                    payloadReader.close();
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
+                if (nWrite != header) {
+                    log.error("Payload is " + header + " bytes, but only wrote " + nWrite + " bytes!");
+                } else {
+                    if (log.isDebugEnabled()){
+                        log.debug("sending a regular payload of length " + header);
+                    }
                 }
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
-            buffers.add(buf);
-            if (buffers.size() == 10000 || done) {
-                /*
-                while(tempBuffers.size() > 0){
-                    bufferCache.returnBuffer((ByteBuffer)tempBuffers.remove(0));
-                }
-                */
-                while (buffers.size() > 0) {
-                    buf = (ByteBuffer) buffers.remove(0);
-                    header = buf.getInt(0);
-                    try {
-                        int nWrite = sinkChannel.write(buf);
-                        Thread.sleep(100);
-                        //tempBuffers.add(buf);
-                        if (nWrite != header) {
-                            log.error("Payload is " + header + " bytes, but only wrote " + nWrite + " bytes!");
-                        } else {
-                            if (log.isDebugEnabled()){
-                                log.debug("sending a regular payload of length " + header);
-                            }
+
+            if (header == DONE_SIGNAL) {
+                break;
+            }
+            if (buf.capacity() == BufferUtil.DEFAULT_BUFFER_BLEN) {
+                buf.clear();
+                freeBuffers.offer(buf);
+            }
+        }
+
+        done = true;
+        if (readerError != null) {
+            throw new RuntimeException(readerError);
+        }
+    }
+
+    /**
+     * get the next payload straight from the file, bypassing the pipe and
+     * the prefetch thread, for MergingInputSource.  Must not be mixed with
+     * <tt>startProcessing()</tt>.
+     *
+     * @return next payload, or <tt>null</tt> at the end of the file
+     *
+     * @throws IOException if the file cannot be read
+     */
+    ByteBuffer nextPayload() throws IOException {
+        if (done) {
+            return null;
+        }
+        ByteBuffer buf = payloadReader.nextPayload();
+        if (buf == null) {
+            done = true;
+            if (log.isInfoEnabled()) {
+                log.info("END OF FILE from Channel " + sourceID);
+            }
+            payloadReader.close();
+        }
+        return buf;
+    }
+
+    /**
+     * set the number of payloads read ahead of the writer
+     *
+     * @param prefetchDepth number of pooled buffers
+     */
+    public void setPrefetchDepth(int prefetchDepth) {
+        if (prefetchDepth < 1) {
+            throw new IllegalArgumentException("Prefetch depth must be at least 1");
+        }
+        this.prefetchDepth = prefetchDepth;
+    }
+
+    /**
+     * get the number of payloads read ahead of the writer
+     *
+     * @return number of pooled buffers
+     */
+    public int getPrefetchDepth() {
+        return prefetchDepth;
+    }
+
+    // copies payloads from the mapped file into pooled buffers
+    class PrefetchReader implements Runnable {
+        public void run() {
+            try {
+                while (!done) {
+                    ByteBuffer payload = payloadReader.nextPayload();
+                    if (payload == null) {
+                        if (log.isInfoEnabled()) {
+                            log.info("END OF FILE from Channel " + sourceID);
                         }
-                    } catch (Exception e) {
-                        throw new RuntimeException(e);
+                        break;
+                    }
+
+                    ByteBuffer buf;
+                    if (payload.remaining() <= BufferUtil.DEFAULT_BUFFER_BLEN) {
+                        buf = (ByteBuffer) freeBuffers.take();
+                    } else {
+                        buf = ByteBuffer.allocate(payload.remaining());
                     }
+                    buf.put(payload);
+                    buf.flip();
+                    filledBuffers.put(buf);
+                }
+            } catch (Exception e) {
+                if (!done) {
+                    log.error("Problem reading payloads for Channel " + sourceID, e);
+                    readerError = e;
                 }
             }
+
+            try {
+                payloadReader.close();
+            } catch (IOException ioe) {
+                log.error("Couldn't close payload file for Channel " + sourceID, ioe);
+            }
+
+            ByteBuffer stop = ByteBuffer.allocate(DONE_SIGNAL);
+            stop.putInt(0, DONE_SIGNAL);
+            try {
+                filledBuffers.put(stop);
+            } catch (InterruptedException ie) {
+                log.error("Couldn't queue stop signal for Channel " + sourceID, ie);
+            }
         }
     }
 
@@ -143,27 +263,36 @@ public class SingleFileInputSource implements InputSource {
      * @throws IOException
      */
     public void stopProcessing() throws IOException {
-        payloadReader.close();
-        sinkChannel.close();
         done = true;
+        if (filledBuffers == null) {
+            payloadReader.close();
+        } else {
+            // wake up the prefetch thread so it can close the file
+            freeBuffers.offer(ByteBuffer.allocate(BufferUtil.DEFAULT_BUFFER_BLEN));
+            filledBuffers.clear();
+        }
+        sinkChannel.close();
     }
 
     /**
      * set the rate
      *
-     * @param rate
+     * @param rate payloads per second, or 0 to send as fast as possible
      */
     public void setRate(double rate) {
-        throw new UnsupportedOperationException("setRate is not supported for this version");
+        if (rate < 0.0) {
+            throw new IllegalArgumentException("Rate cannot be negative");
+        }
+        this.rate = rate;
     }
 
     /**
      * get the rate for this input source
      *
-     * @return rate
+     * @return payloads per second
      */
     public double getRate() {
-        throw new UnsupportedOperationException("getRate is not supported for this version");
+        return rate;
     }
 
     /**
@@ -0,0 +1,72 @@
+/**
+ * StripedCounter
+ *
+ * (c) 2026 IceCube Collaboration
+ */
+package icecube.daq.testUtil;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter which many threads can add to without contending on a single
+ * memory location.  Each thread hashes to one of several cells, each on
+ * its own cache line, and <tt>sum()</tt> adds the cells together, so
+ * reads are slower than writes and only approximate while writers are
+ * active.
+ */
+public class StripedCounter {
+
+    // longs per cell, so cells sit on separate 64-byte cache lines
+    private static final int PAD = 8;
+    private static final int STRIPES = stripeCount();
+
+    private AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+    private static int stripeCount() {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        int stripes = 1;
+        while (stripes < cpus * 2 && stripes < 64) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    /**
+     * add to the counter
+     * @param delta amount to add
+     */
+    public void add(long delta) {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        cells.addAndGet(((h ^ (h >>> 16)) & (STRIPES - 1)) * PAD, delta);
+    }
+
+    public void increment() {
+        add(1L);
+    }
+
+    /**
+     * get the current total
+     * @return sum of all cells
+     */
+    public long sum() {
+        long total = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            total += cells.get(i * PAD);
+        }
+        return total;
+    }
+
+    /**
+     * set the counter to zero; adds made at the same time may be lost
+     */
+    public void reset() {
+        for (int i = 0; i < STRIPES; i++) {
+            cells.set(i * PAD, 0L);
+        }
+    }
+
+    public String toString() {
+        return Long.toString(sum());
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * WaitStrategy
+ *
+ * (c) 2026 IceCube Collaboration
+ */
+package icecube.daq.testUtil;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decides what a thread does while it waits for the other end of a
+ * {@link RingBufferPipe} to make progress.
+ */
+public abstract class WaitStrategy {
+
+    /** busy-spin, lowest latency, burns a core per waiting thread */
+    public static final WaitStrategy SPIN = new SpinWaitStrategy();
+    /** spin briefly, then yield the processor between checks */
+    public static final WaitStrategy YIELD = new YieldWaitStrategy();
+    /** spin briefly, then park until signalled (or a short timeout) */
+    public static final WaitStrategy PARK = new ParkWaitStrategy();
+
+    private static final int SPIN_TRIES = 100;
+    private static final long MAX_PARK_NANOS = 1000000L;
+
+    /**
+     * wait once
+     * @param counter number of times this wait has already been called
+     *                without the condition becoming true
+     * @return the value to pass as <tt>counter</tt> on the next call
+     */
+    public abstract int idle(int counter);
+
+    /**
+     * look up a strategy by name ("spin", "yield" or "park")
+     * @param name strategy name
+     * @return the matching strategy
+     */
+    public static WaitStrategy getStrategy(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("Wait strategy cannot be null");
+        } else if (name.equalsIgnoreCase("spin")) {
+            return SPIN;
+        } else if (name.equalsIgnoreCase("yield")) {
+            return YIELD;
+        } else if (name.equalsIgnoreCase("park")) {
+            return PARK;
+        }
+        throw new IllegalArgumentException("Unknown wait strategy '" + name + "'");
+    }
+
+    static class SpinWaitStrategy extends WaitStrategy {
+        public int idle(int counter) {
+            return counter + 1;
+        }
+
+        public String toString() {
+            return "spin";
+        }
+    }
+
+    static class YieldWaitStrategy extends WaitStrategy {
+        public int idle(int counter) {
+            if (counter >= SPIN_TRIES) {
+                Thread.yield();
+            }
+            return counter + 1;
+        }
+
+        public String toString() {
+            return "yield";
+        }
+    }
+
+    static class ParkWaitStrategy extends WaitStrategy {
+        public int idle(int counter) {
+            if (counter < SPIN_TRIES) {
+                return counter + 1;
+            }
+            // back off exponentially; the other side unparks us as soon as
+            // it publishes, so the timeout only bounds a missed signal
+            int shift = Math.min(counter - SPIN_TRIES, 10);
+            LockSupport.parkNanos(Math.min(1000L << shift, MAX_PARK_NANOS));
+            return counter + 1;
+        }
+
+        public String toString() {
+            return "park";
+        }
+    }
+}